@@ -0,0 +1,39 @@
+package rwmidi.benchmarks;
+
+import rwmidi.Controller;
+import rwmidi.Note;
+import rwmidi.ProgramChange;
+import rwmidi.ShortMessageListener;
+import rwmidi.SysexMessage;
+
+/**
+ * Callback object with the standard rwmidi callbacks, accumulating the received values so the calls can't be
+ * optimized away.
+ */
+public class CountingListener implements ShortMessageListener {
+	public long sum = 0;
+
+	public void noteOnReceived(Note note) {
+		sum += note.getPitch();
+	}
+
+	public void noteOffReceived(Note note) {
+		sum += note.getPitch();
+	}
+
+	public void controllerChangeReceived(Controller controller) {
+		sum += controller.getValue();
+	}
+
+	public void programChangeReceived(ProgramChange programChange) {
+		sum += programChange.getNumber();
+	}
+
+	public void sysexReceived(SysexMessage sysex) {
+		sum += sysex.getLength();
+	}
+
+	public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		sum += data1;
+	}
+}
@@ -0,0 +1,95 @@
+package rwmidi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rwmidi.MidiInput;
+import rwmidi.MidiLoopback;
+import rwmidi.RWMidi;
+
+/**
+ * Measures MidiInput.send, which decodes a message and dispatches it to the plugs, for different message types,
+ * numbers of plugged objects and channel filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputDispatchBenchmark {
+	/**
+	 * Number of objects plugged with the standard callbacks.
+	 */
+	@Param({ "1", "10", "40" })
+	public int plugs;
+
+	/**
+	 * all: plugged on all channels, matching: plugged on the channel of the messages, other: plugged on another channel.
+	 */
+	@Param({ "all", "matching", "other" })
+	public String channelFilter;
+
+	@Param({ "noteOn", "controller", "sysex" })
+	public String message;
+
+	private MidiLoopback loopback;
+	private MidiInput input;
+	private MidiMessage midiMessage;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InvalidMidiDataException {
+		loopback = RWMidi.createLoopback("input-benchmark");
+		input = loopback.createInput();
+		int channel = "all".equals(channelFilter) ? -1 : "matching".equals(channelFilter) ? 0 : 5;
+		for (int i = 0; i < plugs; i++) {
+			input.plug(new CountingListener(), channel);
+		}
+		midiMessage = Messages.create(message);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.closeMidi();
+		RWMidi.removeLoopback(loopback);
+	}
+
+	@Benchmark
+	public void send() {
+		input.send(midiMessage, -1);
+	}
+
+	/**
+	 * Synthetic messages on channel 0.
+	 */
+	static final class Messages {
+		static MidiMessage create(String type) throws InvalidMidiDataException {
+			if ("noteOn".equals(type)) {
+				return new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100);
+			} else if ("controller".equals(type)) {
+				return new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 7, 100);
+			}
+			byte[] data = new byte[256];
+			data[0] = (byte) 0xF0;
+			data[data.length - 1] = (byte) 0xF7;
+			return new javax.sound.midi.SysexMessage(data, data.length);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package rwmidi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rwmidi.MidiBatch;
+import rwmidi.MidiLoopback;
+import rwmidi.MidiOutput;
+import rwmidi.RWMidi;
+
+/**
+ * Measures the MidiOutput send paths against an in-memory receiver (a loopback without inputs), with and without
+ * message reuse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputSendBenchmark {
+	@Param({ "false", "true" })
+	public boolean reuseMessages;
+
+	private MidiLoopback loopback;
+	private MidiOutput output;
+	private MidiBatch batch;
+	private int note = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		loopback = RWMidi.createLoopback("output-benchmark");
+		output = loopback.createOutput();
+		output.setReuseMessages(reuseMessages);
+		batch = output.batch();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		output.closeMidi();
+		RWMidi.removeLoopback(loopback);
+	}
+
+	@Benchmark
+	public boolean sendNoteOn() {
+		note = (note + 1) & 0x7F;
+		return output.sendNoteOn(0, note, 100);
+	}
+
+	@Benchmark
+	public boolean sendController() {
+		note = (note + 1) & 0x7F;
+		return output.sendController(0, 7, note);
+	}
+
+	@Benchmark
+	public boolean sendShortMessage() {
+		note = (note + 1) & 0x7F;
+		return output.sendShortMessage(0x90, note, 100);
+	}
+
+	/**
+	 * Ten note chord sent as a batch.
+	 */
+	@Benchmark
+	public boolean sendChordBatch() {
+		for (int i = 0; i < 10; i++) {
+			batch.noteOn(0, 60 + i, 100);
+		}
+		return batch.flush();
+	}
+
+	/**
+	 * Ten note chord sent with one call per note.
+	 */
+	@Benchmark
+	public boolean sendChordSingle() {
+		boolean result = true;
+		for (int i = 0; i < 10; i++) {
+			result &= output.sendNoteOn(0, 60 + i, 100);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,67 @@
+package rwmidi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rwmidi.MidiInput;
+import rwmidi.MidiLoopback;
+import rwmidi.RWMidi;
+
+/**
+ * Measures MidiInput.send with primitive short message listeners instead of plugs, for comparison with
+ * {@link InputDispatchBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortMessageListenerBenchmark {
+	@Param({ "1", "10", "40" })
+	public int listeners;
+
+	@Param({ "noteOn", "controller" })
+	public String message;
+
+	private MidiLoopback loopback;
+	private MidiInput input;
+	private MidiMessage midiMessage;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InvalidMidiDataException {
+		loopback = RWMidi.createLoopback("listener-benchmark");
+		input = loopback.createInput();
+		for (int i = 0; i < listeners; i++) {
+			input.addShortMessageListener(new CountingListener());
+		}
+		midiMessage = InputDispatchBenchmark.Messages.create(message);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.closeMidi();
+		RWMidi.removeLoopback(loopback);
+	}
+
+	@Benchmark
+	public void send() {
+		input.send(midiMessage, -1);
+	}
+}
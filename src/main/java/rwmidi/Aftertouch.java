@@ -0,0 +1,54 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a MIDI Channel Pressure (aftertouch) message, applying to all the notes of a channel. You can access
+ * the pressure using {@Link Aftertouch-getPressure}.
+ */
+public class Aftertouch extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create a Channel Pressure message.
+	 *
+	 * @param channel  Channel Pressure channel
+	 * @param pressure the pressure
+	 */
+	public Aftertouch(final int channel, final int pressure) {
+		super(CHANNEL_PRESSURE | channel, pressure, 0);
+	}
+
+	/**
+	 * @return the pressure of the message
+	 */
+	public int getPressure() {
+		return getData1();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof Aftertouch)) {
+			return false;
+		}
+		Aftertouch other = (Aftertouch) obj;
+		return new EqualsBuilder()
+				.append(getPressure(), other.getPressure())
+				.append(getChannel(), other.getChannel())
+				.build();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(getPressure())
+				.append(getChannel())
+				.build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.Aftertouch pressure: " + getPressure();
+	}
+}
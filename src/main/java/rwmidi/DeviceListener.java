@@ -0,0 +1,22 @@
+package rwmidi;
+
+/**
+ * Listener notified when MIDI devices appear or disappear between two refreshes of the device list. Register it using
+ * {@link RWMidi#addDeviceListener(DeviceListener)}. A device that can be used for input and output is reported once
+ * as a {@link MidiInputDevice} and once as a {@link MidiOutputDevice}.
+ */
+public interface DeviceListener {
+	/**
+	 * Called when a device has been found that wasn't available at the previous refresh.
+	 *
+	 * @param device the new device
+	 */
+	void deviceAdded(MidiDevice device);
+
+	/**
+	 * Called when a device that was available at the previous refresh can't be found anymore.
+	 *
+	 * @param device the removed device
+	 */
+	void deviceRemoved(MidiDevice device);
+}
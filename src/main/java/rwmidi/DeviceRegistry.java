@@ -0,0 +1,230 @@
+package rwmidi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Cache of the MIDI devices returned by the Java MIDI system, used by {@link RWMidi}. Querying the MIDI system can
+ * be slow, so the device list is only read again when it is refreshed explicitly or periodically. Lookups are served
+ * from an immutable snapshot, and the device objects (and the java devices they hold) are kept across refreshes for
+ * devices that are still available.
+ */
+final class DeviceRegistry {
+	private static final DeviceRegistry INSTANCE = new DeviceRegistry();
+
+	private volatile Snapshot snapshot = null;
+	private final List<DeviceListener> listeners = new CopyOnWriteArrayList<DeviceListener>();
+	private final List<MidiLoopback> loopbacks = new CopyOnWriteArrayList<MidiLoopback>();
+	private ScheduledExecutorService executor = null;
+	private ScheduledFuture<?> refreshTask = null;
+
+	static DeviceRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	List<MidiInputDevice> getInputDevices() {
+		return getSnapshot().inputs;
+	}
+
+	List<MidiOutputDevice> getOutputDevices() {
+		return getSnapshot().outputs;
+	}
+
+	MidiInputDevice getInputDevice(String name) {
+		return getSnapshot().inputsByName.get(name);
+	}
+
+	MidiOutputDevice getOutputDevice(String name) {
+		return getSnapshot().outputsByName.get(name);
+	}
+
+	void addListener(DeviceListener listener) {
+		if (listener != null) {
+			listeners.add(listener);
+		}
+	}
+
+	void removeListener(DeviceListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Add a loopback to the device list and notify the listeners.
+	 */
+	void addLoopback(MidiLoopback loopback) {
+		loopbacks.add(loopback);
+		refresh();
+	}
+
+	/**
+	 * Remove a loopback from the device list and notify the listeners.
+	 */
+	void removeLoopback(MidiLoopback loopback) {
+		if (loopbacks.remove(loopback)) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Read the device list from the MIDI system again and notify the listeners about the changes.
+	 */
+	void refresh() {
+		List<MidiDevice> added = new ArrayList<MidiDevice>();
+		List<MidiDevice> removed = new ArrayList<MidiDevice>();
+		synchronized (this) {
+			Snapshot previous = snapshot;
+			Snapshot current = scan(previous);
+			snapshot = current;
+			if (previous == null) {
+				return;
+			}
+			diff(previous.inputsByKey, current.inputsByKey, removed);
+			diff(previous.outputsByKey, current.outputsByKey, removed);
+			diff(current.inputsByKey, previous.inputsByKey, added);
+			diff(current.outputsByKey, previous.outputsByKey, added);
+		}
+		for (DeviceListener listener : listeners) {
+			for (MidiDevice device : removed) {
+				listener.deviceRemoved(device);
+			}
+			for (MidiDevice device : added) {
+				listener.deviceAdded(device);
+			}
+		}
+	}
+
+	/**
+	 * Refresh the device list periodically from a background thread.
+	 *
+	 * @param periodMillis refresh period in milliseconds, 0 to stop refreshing
+	 */
+	synchronized void setAutoRefresh(long periodMillis) {
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+		if (periodMillis <= 0) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "rwmidi device refresh");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		refreshTask = executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private Snapshot getSnapshot() {
+		Snapshot result = snapshot;
+		if (result == null) {
+			synchronized (this) {
+				if (snapshot == null) {
+					snapshot = scan(null);
+				}
+				result = snapshot;
+			}
+		}
+		return result;
+	}
+
+	private Snapshot scan(Snapshot previous) {
+		Snapshot result = new Snapshot();
+		Map<String, Integer> keyCounts = new HashMap<String, Integer>();
+		for (javax.sound.midi.MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+			String key = key(info, keyCounts);
+			MidiInputDevice input = previous == null ? null : previous.inputsByKey.get(key);
+			MidiOutputDevice output = previous == null ? null : previous.outputsByKey.get(key);
+			if (input == null && output == null) {
+				javax.sound.midi.MidiDevice device;
+				try {
+					device = MidiSystem.getMidiDevice(info);
+				} catch (MidiUnavailableException e) {
+					e.printStackTrace();
+					continue;
+				}
+				if (device.getMaxTransmitters() != 0)
+					input = new MidiInputDevice(device);
+				if (device.getMaxReceivers() != 0)
+					output = new MidiOutputDevice(device);
+			}
+			if (input != null)
+				result.inputsByKey.put(key, input);
+			if (output != null)
+				result.outputsByKey.put(key, output);
+		}
+		for (MidiLoopback loopback : loopbacks) {
+			String key = "\u0000loopback\u0000" + key(loopback.getDevice().getDeviceInfo(), keyCounts);
+			result.inputsByKey.put(key, loopback.getInputDevice());
+			result.outputsByKey.put(key, loopback.getOutputDevice());
+		}
+		return result.seal();
+	}
+
+	/**
+	 * Build a key identifying a device across refreshes. The info objects themselves can't be used, as some
+	 * providers return new ones on every call. Identical devices get a numbered key.
+	 */
+	private static String key(javax.sound.midi.MidiDevice.Info info, Map<String, Integer> keyCounts) {
+		String key = info.getName() + "\u0000" + info.getVendor() + "\u0000" + info.getDescription() + "\u0000"
+				+ info.getVersion();
+		Integer count = keyCounts.get(key);
+		keyCounts.put(key, count == null ? 1 : count + 1);
+		return count == null ? key : key + "\u0000" + count;
+	}
+
+	private static <T extends MidiDevice> void diff(Map<String, T> from, Map<String, T> to, List<MidiDevice> result) {
+		for (Map.Entry<String, T> entry : from.entrySet()) {
+			if (!to.containsKey(entry.getKey()))
+				result.add(entry.getValue());
+		}
+	}
+
+	private static final class Snapshot {
+		final Map<String, MidiInputDevice> inputsByKey = new LinkedHashMap<String, MidiInputDevice>();
+		final Map<String, MidiOutputDevice> outputsByKey = new LinkedHashMap<String, MidiOutputDevice>();
+		final Map<String, MidiInputDevice> inputsByName = new HashMap<String, MidiInputDevice>();
+		final Map<String, MidiOutputDevice> outputsByName = new HashMap<String, MidiOutputDevice>();
+		List<MidiInputDevice> inputs;
+		List<MidiOutputDevice> outputs;
+
+		Snapshot seal() {
+			inputs = Collections.unmodifiableList(new ArrayList<MidiInputDevice>(inputsByKey.values()));
+			outputs = Collections.unmodifiableList(new ArrayList<MidiOutputDevice>(outputsByKey.values()));
+			// the first device wins if several devices have the same name
+			for (MidiInputDevice device : inputs) {
+				if (!inputsByName.containsKey(device.getName()))
+					inputsByName.put(device.getName(), device);
+			}
+			for (MidiOutputDevice device : outputs) {
+				if (!outputsByName.containsKey(device.getName()))
+					outputsByName.put(device.getName(), device);
+			}
+			return this;
+		}
+	}
+}
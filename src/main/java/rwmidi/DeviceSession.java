@@ -0,0 +1,124 @@
+package rwmidi;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+/**
+ * Reference counted handle on an open java MIDI device, shared by all the {@link MidiInput} and {@link MidiOutput}
+ * objects using the device. The device is opened by the first user and closed when the last one releases it. A single
+ * transmitter is opened for all the inputs of the device, and its messages are passed on to each of them, and a
+ * single receiver is shared by all the outputs.
+ */
+final class DeviceSession implements Receiver {
+	private static final Map<javax.sound.midi.MidiDevice, DeviceSession> SESSIONS =
+			new IdentityHashMap<javax.sound.midi.MidiDevice, DeviceSession>();
+
+	private final javax.sound.midi.MidiDevice device;
+	private int references = 0;
+	private Transmitter transmitter = null;
+	private Receiver receiver = null;
+	private volatile MidiInput[] inputs = new MidiInput[0];
+
+	private DeviceSession(javax.sound.midi.MidiDevice device) {
+		this.device = device;
+	}
+
+	/**
+	 * Get the session of a device, opening the device if it is not used yet. Every call has to be matched by a call
+	 * to {@link #release()}.
+	 */
+	static DeviceSession acquire(javax.sound.midi.MidiDevice device) throws MidiUnavailableException {
+		synchronized (SESSIONS) {
+			DeviceSession session = SESSIONS.get(device);
+			if (session == null) {
+				device.open();
+				session = new DeviceSession(device);
+				SESSIONS.put(device, session);
+			}
+			session.references++;
+			return session;
+		}
+	}
+
+	/**
+	 * Release a reference on the session, closing the device when it isn't used anymore.
+	 */
+	void release() {
+		synchronized (SESSIONS) {
+			if (references == 0 || --references > 0) {
+				return;
+			}
+			SESSIONS.remove(device);
+			if (transmitter != null) {
+				transmitter.close();
+				transmitter = null;
+			}
+			if (receiver != null) {
+				receiver.close();
+				receiver = null;
+			}
+			inputs = new MidiInput[0];
+			device.close();
+		}
+	}
+
+	javax.sound.midi.MidiDevice getDevice() {
+		return device;
+	}
+
+	/**
+	 * @return the receiver of the device, opened on first use
+	 */
+	Receiver getReceiver() throws MidiUnavailableException {
+		synchronized (SESSIONS) {
+			if (receiver == null) {
+				receiver = device.getReceiver();
+			}
+			return receiver;
+		}
+	}
+
+	/**
+	 * Start passing the messages of the device on to the input, opening the transmitter on first use.
+	 */
+	void addInput(MidiInput input) throws MidiUnavailableException {
+		synchronized (SESSIONS) {
+			if (transmitter == null) {
+				transmitter = device.getTransmitter();
+				transmitter.setReceiver(this);
+			}
+			MidiInput[] result = new MidiInput[inputs.length + 1];
+			System.arraycopy(inputs, 0, result, 0, inputs.length);
+			result[inputs.length] = input;
+			inputs = result;
+		}
+	}
+
+	void removeInput(MidiInput input) {
+		synchronized (SESSIONS) {
+			for (int i = 0; i < inputs.length; i++) {
+				if (inputs[i] == input) {
+					MidiInput[] result = new MidiInput[inputs.length - 1];
+					System.arraycopy(inputs, 0, result, 0, i);
+					System.arraycopy(inputs, i + 1, result, i, inputs.length - i - 1);
+					inputs = result;
+					return;
+				}
+			}
+		}
+	}
+
+	public void send(MidiMessage message, long timeStamp) {
+		for (MidiInput input : inputs) {
+			input.send(message, timeStamp);
+		}
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,16 @@
+package rwmidi;
+
+/**
+ * Describes what a {@link MidiInput} using asynchronous dispatch does when its dispatch queue is full
+ * (see {@link MidiInput#setAsynchronousDispatch(int, DispatchOverflowPolicy)}).
+ */
+public enum DispatchOverflowPolicy {
+	/**
+	 * Drop the incoming message and count it as dropped.
+	 */
+	DROP,
+	/**
+	 * Make the MIDI thread wait until the dispatch thread has made room in the queue.
+	 */
+	BLOCK
+}
@@ -0,0 +1,226 @@
+package rwmidi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Bounded single-producer single-consumer ring buffer between the thread delivering MIDI data to a
+ * {@link MidiInput} and a dedicated dispatch thread calling the plugs. The producer side doesn't take any lock,
+ * which is why {@link #offer(MidiMessage, long)} must only be called from one thread at a time, as is the case for
+ * a transmitter.
+ * <p>
+ * A queue replacing another one only starts dispatching once the previous dispatch thread has terminated, and a
+ * stopped queue hands the messages it couldn't take back to the producer, so the messages are always dispatched in
+ * order and from a single thread at a time.
+ * <p>
+ * The queue copies the messages instead of keeping them, since the sender may reuse a message once it has been
+ * delivered: short messages are stored as packed ints (see {@link PackedMessage}) and sysex messages as copies of
+ * their bytes.
+ */
+final class DispatchQueue implements Runnable {
+	private static final long IDLE_PARK_NANOS = 10000000L;
+	private static final long FULL_PARK_NANOS = 50000L;
+
+	/** The message has been queued. */
+	static final int OFFERED = 0;
+	/** The message has been dropped because the queue was full. */
+	static final int DROPPED = 1;
+	/**
+	 * The queue has been stopped and didn't take the message: wait for {@link #awaitTermination()} and hand the
+	 * message to the next queue, or dispatch it directly.
+	 */
+	static final int CLOSED = 2;
+
+	private final MidiInput input;
+	private final DispatchOverflowPolicy overflowPolicy;
+	private final int[] shortMessages;
+	/** The bytes of the sysex messages, null for the short messages. */
+	private final byte[][] sysexMessages;
+	private final long[] timeStamps;
+	private final int mask;
+	private final Thread thread;
+	private DispatchQueue previous;
+
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean waiting = false;
+	private volatile boolean running = true;
+
+	/**
+	 * @param previous the queue this one replaces, which must have been stopped and is allowed to finish its
+	 *                 dispatching before this queue starts, or null
+	 */
+	DispatchQueue(final MidiInput input, final int capacity, final DispatchOverflowPolicy overflowPolicy,
+			final DispatchQueue previous) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Dispatch queue capacity must be positive: " + capacity);
+		}
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Dispatch overflow policy must not be null");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.input = input;
+		this.overflowPolicy = overflowPolicy;
+		this.previous = previous;
+		shortMessages = new int[size];
+		sysexMessages = new byte[size][];
+		timeStamps = new long[size];
+		mask = size - 1;
+		thread = new Thread(this, "rwmidi dispatch " + input.getName());
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Ask the dispatch thread to stop once the messages already in the queue have been dispatched. This doesn't wait
+	 * for the thread, use {@link #awaitTermination()} without holding any lock the callbacks may take.
+	 */
+	void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Wait for the dispatch thread of a stopped queue to terminate. Returns immediately when called from the dispatch
+	 * thread itself.
+	 */
+	void awaitTermination() {
+		if (Thread.currentThread() == thread) {
+			return;
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Enqueue a message for dispatching.
+	 *
+	 * @return {@link #OFFERED}, {@link #DROPPED} if the queue was full, or {@link #CLOSED} if the queue has been
+	 * stopped and the message is still to be delivered by the caller
+	 */
+	int offer(final MidiMessage message, final long timeStamp) {
+		if (!running) {
+			return CLOSED;
+		}
+		if (!(message instanceof ShortMessage) && !(message instanceof SysexMessage)) {
+			return OFFERED; // nothing to dispatch, like MidiInput.receive
+		}
+		final long t = tail.get();
+		while (t - head.get() >= shortMessages.length) {
+			if (!running) {
+				return CLOSED;
+			}
+			if (overflowPolicy == DispatchOverflowPolicy.DROP) {
+				dropped.incrementAndGet();
+				input.recordDropped();
+				return DROPPED;
+			}
+			LockSupport.parkNanos(FULL_PARK_NANOS);
+		}
+		final int index = (int) t & mask;
+		if (message instanceof ShortMessage) {
+			final ShortMessage shortMessage = (ShortMessage) message;
+			shortMessages[index] = PackedMessage.pack(shortMessage.getStatus(), shortMessage.getData1(),
+					shortMessage.getData2());
+			sysexMessages[index] = null;
+		} else {
+			sysexMessages[index] = message.getMessage(); // returns a copy
+		}
+		timeStamps[index] = timeStamp;
+		tail.set(t + 1);
+		if (!running && Thread.currentThread() != thread) {
+			// stopped concurrently: the dispatch thread may have left without seeing the message
+			awaitTermination();
+			if (head.get() <= t) {
+				sysexMessages[index] = null;
+				return CLOSED;
+			}
+			return OFFERED;
+		}
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+		return OFFERED;
+	}
+
+	/**
+	 * @return the number of messages waiting to be dispatched
+	 */
+	int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	int capacity() {
+		return shortMessages.length;
+	}
+
+	/**
+	 * @return the number of messages dropped because the queue was full
+	 */
+	long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public void run() {
+		if (previous != null) {
+			previous.awaitTermination();
+			previous = null;
+		}
+		long h = head.get();
+		while (true) {
+			if (h == tail.get()) {
+				if (!running) {
+					// the producer publishes before checking running, so check the tail again after running
+					if (h == tail.get()) {
+						input.dispatchTerminated(this);
+						return;
+					}
+					continue;
+				}
+				waiting = true;
+				if (h == tail.get() && running) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				waiting = false;
+				continue;
+			}
+			final int index = (int) h & mask;
+			final int packed = shortMessages[index];
+			final byte[] sysex = sysexMessages[index];
+			final long timeStamp = timeStamps[index];
+			sysexMessages[index] = null;
+			head.lazySet(++h);
+			try {
+				if (sysex == null) {
+					input.receiveShort(PackedMessage.getStatus(packed), PackedMessage.getData1(packed),
+							PackedMessage.getData2(packed), timeStamp);
+				} else {
+					input.receiveSysex(sysex, timeStamp);
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
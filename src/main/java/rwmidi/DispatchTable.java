@@ -0,0 +1,62 @@
+package rwmidi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable routing table for the plugs of a {@link MidiInput}. The table is computed once when plugs are added
+ * or removed, and maps every status byte (status nibble and channel) to the plugs whose filters accept it, so
+ * dispatching a message only visits the matching plugs.
+ */
+final class DispatchTable {
+	private static final Plug[] NO_PLUGS = new Plug[0];
+
+	static final DispatchTable EMPTY = new DispatchTable(new ArrayList<Plug>());
+
+	private final Plug[][] routes = new Plug[256][];
+	private final Plug[] sysexRoute;
+
+	DispatchTable(final List<Plug> plugs) {
+		List<Plug> matching = new ArrayList<Plug>();
+		for (int status = 0; status < 256; status++) {
+			if (status < 0x80) {
+				routes[status] = NO_PLUGS;
+				continue;
+			}
+			matching.clear();
+			for (Plug plug : plugs) {
+				if (plug.isActive() && plug.matches(status))
+					matching.add(plug);
+			}
+			routes[status] = toArray(matching);
+		}
+		matching.clear();
+		for (Plug plug : plugs) {
+			if (plug.isActive() && plug.matchesSysex())
+				matching.add(plug);
+		}
+		sysexRoute = toArray(matching);
+	}
+
+	/**
+	 * @param status status byte of a short message
+	 * @return the plugs accepting messages with this status byte, never null
+	 */
+	Plug[] route(final int status) {
+		return routes[status & 0xFF];
+	}
+
+	/**
+	 * @return the plugs accepting sysex messages, never null
+	 */
+	Plug[] sysexRoute() {
+		return sysexRoute;
+	}
+
+	private static Plug[] toArray(List<Plug> plugs) {
+		if (plugs.isEmpty()) {
+			return NO_PLUGS;
+		}
+		return plugs.toArray(new Plug[plugs.size()]);
+	}
+}
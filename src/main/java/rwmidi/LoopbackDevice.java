@@ -0,0 +1,206 @@
+package rwmidi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+/**
+ * In-process java MIDI device passing every message sent to one of its receivers directly to the receivers of all
+ * its transmitters, on the sending thread. Deliveries are serialized, so that the connected receivers see a single
+ * producer like with a hardware port even when several outputs or threads send to the loopback. Used by
+ * {@link MidiLoopback}.
+ * <p>
+ * No lock is held while delivering: a message sent while another one is being delivered, by another thread or by a
+ * callback of the delivery itself, is copied into a queue and delivered in order by the thread already delivering,
+ * after which the sender has returned. So a callback may send into the loopback feeding its own input, and two
+ * loopbacks may feed each other, without deadlocking.
+ */
+final class LoopbackDevice implements javax.sound.midi.MidiDevice {
+	static final String VENDOR = "rwmidi";
+
+	private final Info info;
+	private volatile boolean open = false;
+	private volatile LoopbackTransmitter[] transmitters = new LoopbackTransmitter[0];
+	private final List<LoopbackReceiver> receivers = new ArrayList<LoopbackReceiver>();
+	private final ConcurrentLinkedQueue<PendingMessage> pending = new ConcurrentLinkedQueue<PendingMessage>();
+	private final AtomicBoolean delivering = new AtomicBoolean();
+
+	LoopbackDevice(String name) {
+		info = new LoopbackInfo(name);
+	}
+
+	public Info getDeviceInfo() {
+		return info;
+	}
+
+	public void open() {
+		open = true;
+	}
+
+	public synchronized void close() {
+		open = false;
+		for (LoopbackTransmitter transmitter : transmitters) {
+			transmitter.receiver = null;
+		}
+		transmitters = new LoopbackTransmitter[0];
+		receivers.clear();
+		pending.clear();
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public long getMicrosecondPosition() {
+		return -1;
+	}
+
+	public int getMaxReceivers() {
+		return -1;
+	}
+
+	public int getMaxTransmitters() {
+		return -1;
+	}
+
+	public synchronized Receiver getReceiver() {
+		LoopbackReceiver receiver = new LoopbackReceiver();
+		receivers.add(receiver);
+		return receiver;
+	}
+
+	public synchronized List<Receiver> getReceivers() {
+		return new ArrayList<Receiver>(receivers);
+	}
+
+	public synchronized Transmitter getTransmitter() {
+		LoopbackTransmitter transmitter = new LoopbackTransmitter();
+		LoopbackTransmitter[] result = Arrays.copyOf(transmitters, transmitters.length + 1);
+		result[transmitters.length] = transmitter;
+		transmitters = result;
+		return transmitter;
+	}
+
+	public synchronized List<Transmitter> getTransmitters() {
+		return new ArrayList<Transmitter>(Arrays.asList(transmitters));
+	}
+
+	private synchronized void removeTransmitter(LoopbackTransmitter transmitter) {
+		List<LoopbackTransmitter> result = new ArrayList<LoopbackTransmitter>(Arrays.asList(transmitters));
+		result.remove(transmitter);
+		transmitters = result.toArray(new LoopbackTransmitter[result.size()]);
+	}
+
+	/**
+	 * Deliver a message if no other delivery is running, otherwise queue a copy for the thread delivering. Only the
+	 * thread owning the delivering flag calls the receivers, which therefore see a single producer.
+	 */
+	private void deliver(final MidiMessage message, final long timeStamp) {
+		if (!delivering.compareAndSet(false, true)) {
+			pending.add(new PendingMessage((MidiMessage) message.clone(), timeStamp));
+			if (!delivering.compareAndSet(false, true)) {
+				return; // the delivering thread takes it
+			}
+			drain();
+			return;
+		}
+		if (pending.isEmpty()) {
+			try {
+				deliverToTransmitters(message, timeStamp);
+			} catch (RuntimeException e) {
+				delivering.set(false);
+				throw e;
+			}
+		} else {
+			// keep the order of the messages queued before this one
+			pending.add(new PendingMessage((MidiMessage) message.clone(), timeStamp));
+		}
+		drain();
+	}
+
+	/**
+	 * Deliver the queued messages while owning the delivering flag, and release it. A message queued after the
+	 * queue was found empty but before the flag was released is picked up by taking the flag again.
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				PendingMessage next = pending.poll();
+				if (next != null) {
+					deliverToTransmitters(next.message, next.timeStamp);
+					continue;
+				}
+				delivering.set(false);
+				if (pending.isEmpty() || !delivering.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		} catch (RuntimeException e) {
+			delivering.set(false);
+			throw e;
+		}
+	}
+
+	private void deliverToTransmitters(final MidiMessage message, final long timeStamp) {
+		for (LoopbackTransmitter transmitter : transmitters) {
+			Receiver receiver = transmitter.receiver;
+			if (receiver != null) {
+				receiver.send(message, timeStamp);
+			}
+		}
+	}
+
+	private static final class PendingMessage {
+		final MidiMessage message;
+		final long timeStamp;
+
+		PendingMessage(final MidiMessage message, final long timeStamp) {
+			this.message = message;
+			this.timeStamp = timeStamp;
+		}
+	}
+
+	private static final class LoopbackInfo extends Info {
+		LoopbackInfo(String name) {
+			super(name, VENDOR, "In-process loopback MIDI device", "1.0");
+		}
+	}
+
+	private final class LoopbackReceiver implements Receiver {
+		public void send(MidiMessage message, long timeStamp) {
+			if (!open) {
+				throw new IllegalStateException("Loopback device is closed");
+			}
+			deliver(message, timeStamp);
+		}
+
+		public void close() {
+			synchronized (LoopbackDevice.this) {
+				receivers.remove(this);
+			}
+		}
+	}
+
+	private final class LoopbackTransmitter implements Transmitter {
+		volatile Receiver receiver = null;
+
+		public void setReceiver(Receiver receiver) {
+			this.receiver = receiver;
+		}
+
+		public Receiver getReceiver() {
+			return receiver;
+		}
+
+		public void close() {
+			receiver = null;
+			removeTransmitter(this);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Group of short messages sent back-to-back on a {@link MidiOutput}, for example the notes of a chord or a burst of
+ * controller changes. Messages are validated when they are added and stored as packed ints, and {@link #flush()}
+ * sends them all without further checks. A batch can be reused after it has been flushed. Create a batch using
+ * {@link MidiOutput#batch()}:
+ * <p/>
+ * <pre>
+ * output.batch().noteOn(0, 60, 100).noteOn(0, 64, 100).noteOn(0, 67, 100).flush();
+ * </pre>
+ * A batch is not thread safe.
+ */
+public class MidiBatch {
+	private final MidiOutput output;
+	private int[] messages = new int[16];
+	private int size = 0;
+
+	MidiBatch(MidiOutput output) {
+		this.output = output;
+	}
+
+	/**
+	 * Add a NOTE ON message to the batch.
+	 *
+	 * @param channel  Channel on which to send the message
+	 * @param note     Note pitch
+	 * @param velocity Note velocity
+	 * @return this batch
+	 */
+	public MidiBatch noteOn(int channel, int note, int velocity) {
+		return channelMessage(MidiEvent.NOTE_ON, channel, note, velocity);
+	}
+
+	/**
+	 * Add a NOTE OFF message to the batch.
+	 *
+	 * @param channel  Channel on which to send the message
+	 * @param note     Note pitch
+	 * @param velocity Note velocity
+	 * @return this batch
+	 */
+	public MidiBatch noteOff(int channel, int note, int velocity) {
+		return channelMessage(MidiEvent.NOTE_OFF, channel, note, velocity);
+	}
+
+	/**
+	 * Add a Controller Change message to the batch.
+	 *
+	 * @param channel Channel on which to send the message
+	 * @param cc      Controller Change number
+	 * @param value   Controller Change value
+	 * @return this batch
+	 */
+	public MidiBatch cc(int channel, int cc, int value) {
+		return channelMessage(MidiEvent.CONTROL_CHANGE, channel, cc, value);
+	}
+
+	/**
+	 * Add a Program Change message to the batch.
+	 *
+	 * @param channel Channel on which to send the message
+	 * @param value   Program Change value
+	 * @return this batch
+	 */
+	public MidiBatch programChange(int channel, int value) {
+		return channelMessage(MidiEvent.PROGRAM_CHANGE, channel, value, 0);
+	}
+
+	/**
+	 * Add a short message given as raw bytes to the batch.
+	 *
+	 * @param status status byte of the message, including the channel
+	 * @param data1  first data byte
+	 * @param data2  second data byte
+	 * @return this batch
+	 * @throws IllegalArgumentException if the message is invalid
+	 */
+	public MidiBatch shortMessage(int status, int data1, int data2) {
+		if (!PackedMessage.isValid(status, data1, data2)) {
+			throw new IllegalArgumentException("Invalid short message: status " + status + " data1 " + data1
+					+ " data2 " + data2);
+		}
+		if (size == messages.length) {
+			messages = Arrays.copyOf(messages, size * 2);
+		}
+		messages[size++] = PackedMessage.pack(status, data1, data2);
+		return this;
+	}
+
+	/**
+	 * @return the number of messages waiting in the batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all the messages from the batch without sending them.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Send all the messages of the batch in the order they were added, and clear the batch. If the output fails, the
+	 * failed message and the ones after it stay in the batch, so it can be flushed again or cleared.
+	 *
+	 * @return true on success, false on error
+	 */
+	public boolean flush() {
+		final int count = size;
+		int sent = 0;
+		try {
+			for (; sent < count; sent++) {
+				final int packed = messages[sent];
+				output.sendValid(PackedMessage.getStatus(packed), PackedMessage.getData1(packed),
+						PackedMessage.getData2(packed), -1);
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			size = count - sent;
+			System.arraycopy(messages, sent, messages, 0, size);
+			return false;
+		}
+		size = 0;
+		return true;
+	}
+
+	private MidiBatch channelMessage(int command, int channel, int data1, int data2) {
+		if (channel < 0 || channel > 0x0F) {
+			throw new IllegalArgumentException("Channel out of range: " + channel);
+		}
+		return shortMessage(command | channel, data1, data2);
+	}
+}
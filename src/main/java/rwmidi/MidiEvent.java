@@ -19,8 +19,37 @@ public class MidiEvent extends ShortMessage implements Serializable {
 	public static final int NOTE_ON = 0x90;
 	public static final int CONTROL_CHANGE = 0xB0;
 	public static final int PROGRAM_CHANGE = 0xC0;
+	public static final int POLY_PRESSURE = 0xA0;
+	public static final int CHANNEL_PRESSURE = 0xD0;
+	public static final int PITCH_BEND = 0xE0;
+	public static final int TIME_CODE = 0xF1;
+	public static final int SONG_POSITION = 0xF2;
 	protected int midiChannel = 0;
 
+	private static final int KIND_NONE = 0;
+	private static final int KIND_SYSEX = 1;
+	private static final int KIND_NOTE = 2;
+	private static final int KIND_POLY_PRESSURE = 3;
+	private static final int KIND_CONTROLLER = 4;
+	private static final int KIND_PROGRAM_CHANGE = 5;
+	private static final int KIND_AFTERTOUCH = 6;
+	private static final int KIND_PITCH_BEND = 7;
+	private static final int KIND_TIME_CODE = 8;
+	private static final int KIND_SONG_POSITION = 9;
+	private static final byte[] EVENT_KINDS = new byte[256];
+
+	static {
+		final int[] channelKinds = { KIND_NOTE, KIND_NOTE, KIND_POLY_PRESSURE, KIND_CONTROLLER, KIND_PROGRAM_CHANGE,
+				KIND_AFTERTOUCH, KIND_PITCH_BEND };
+		for (int status = 0x80; status < 0xF0; status++) {
+			EVENT_KINDS[status] = (byte) channelKinds[(status >> 4) - 8];
+		}
+		EVENT_KINDS[SYSEX_START] = KIND_SYSEX;
+		EVENT_KINDS[SYSEX_END] = KIND_SYSEX;
+		EVENT_KINDS[ShortMessage.MIDI_TIME_CODE] = KIND_TIME_CODE;
+		EVENT_KINDS[ShortMessage.SONG_POSITION_POINTER] = KIND_SONG_POSITION;
+	}
+
 	MidiInput input = null;
 
 	protected MidiEvent(byte[] data) {
@@ -40,31 +69,61 @@ public class MidiEvent extends ShortMessage implements Serializable {
 		}
 	}
 
+	/**
+	 * Decode a message into the event class matching its status byte, using a table indexed by status byte instead
+	 * of testing the message type and command one after the other.
+	 *
+	 * @param midiMessage the message to decode
+	 * @return the event, or null for messages without event class (song select, tune request, realtime messages,
+	 * short messages with a sysex status byte)
+	 */
 	protected static MidiEvent create(MidiMessage midiMessage) {
-		if (midiMessage instanceof javax.sound.midi.SysexMessage)
+		if (midiMessage instanceof javax.sound.midi.SysexMessage) {
 			return new SysexMessage((javax.sound.midi.SysexMessage) midiMessage);
-		else if (midiMessage instanceof ShortMessage) {
-			ShortMessage shortMessage = (ShortMessage) midiMessage;
-			final int midiCommand = shortMessage.getCommand();
-			final int midiChannel = shortMessage.getChannel();
-			final int midiData1 = shortMessage.getData1();
-			final int midiData2 = shortMessage.getData2();
-
-			if (midiCommand == MidiEvent.NOTE_ON && midiData2 > 0) {
-				return new Note(midiCommand, midiChannel, midiData1, midiData2);
-			} else if (midiCommand == MidiEvent.NOTE_OFF || ((midiCommand == NOTE_ON) && (midiData2 == 0))) {
-				return new Note(midiCommand, midiChannel, midiData1, midiData2);
-			} else if (midiCommand == MidiEvent.CONTROL_CHANGE) {
+		}
+		if (!(midiMessage instanceof ShortMessage)) {
+			return null;
+		}
+		// a short message with a sysex status byte (a lone 0xF7) has no event class
+		final ShortMessage shortMessage = (ShortMessage) midiMessage;
+		return create(shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2());
+	}
+
+	/**
+	 * Decode a short message given as status and data bytes, as stored by the dispatch queue.
+	 *
+	 * @return the event, or null for sysex status bytes and messages without event class
+	 */
+	static MidiEvent create(final int status, final int midiData1, final int midiData2) {
+		final int midiChannel = status & 0x0F;
+		switch (EVENT_KINDS[status]) {
+			case KIND_NOTE:
+				return new Note(status & 0xF0, midiChannel, midiData1, midiData2);
+			case KIND_POLY_PRESSURE:
+				return new PolyPressure(midiChannel, midiData1, midiData2);
+			case KIND_CONTROLLER:
 				return new Controller(midiChannel, midiData1, midiData2);
-			} else if (midiCommand == MidiEvent.PROGRAM_CHANGE) {
-				return new ProgramChange(midiData1);
-			}
+			case KIND_PROGRAM_CHANGE:
+				return new ProgramChange(midiChannel, midiData1);
+			case KIND_AFTERTOUCH:
+				return new Aftertouch(midiChannel, midiData1);
+			case KIND_PITCH_BEND:
+				return new PitchBend(midiChannel, midiData1 | (midiData2 << 7));
+			case KIND_TIME_CODE:
+				return new TimeCode(midiData1 >> 4, midiData1 & 0x0F);
+			case KIND_SONG_POSITION:
+				return new SongPosition(midiData1 | (midiData2 << 7));
+			default:
+				return null;
 		}
-		return null;
 	}
 
+	/**
+	 * @return the channel of a channel message, 0 for system messages
+	 */
 	public int getChannel() {
-		return midiChannel;
+		final int status = getStatus();
+		return (status >= 0x80 && status < 0xF0) ? status & 0x0F : midiChannel;
 	}
 
 	/**
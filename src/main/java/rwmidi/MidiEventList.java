@@ -0,0 +1,136 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * List of timed MIDI messages kept in memory, for example to build a sequence in code and play it using a
+ * {@link MidiPlayer}. Short messages are stored packed in primitive arrays, ordered by time, messages with the same
+ * time keeping the order in which they have been added. A list must not be modified while it is being played.
+ */
+public class MidiEventList implements MidiEventSource {
+	private long[] times = new long[64];
+	private int[] messages = new int[64];
+	private byte[][] sysexMessages = new byte[64][];
+	private int size = 0;
+	private int index = -1;
+
+	/**
+	 * Add a short message.
+	 *
+	 * @param timeMicros the time of the message, in microseconds
+	 * @param status     status byte of the message, including the channel
+	 * @param data1      first data byte
+	 * @param data2      second data byte
+	 * @return this list, to chain calls
+	 */
+	public MidiEventList add(long timeMicros, int status, int data1, int data2) {
+		if (!PackedMessage.isValid(status, data1, data2)) {
+			throw new IllegalArgumentException("Invalid message: " + status + ", " + data1 + ", " + data2);
+		}
+		insert(timeMicros, PackedMessage.pack(status, data1, data2), null);
+		return this;
+	}
+
+	/**
+	 * Add a sysex message.
+	 *
+	 * @param timeMicros the time of the message, in microseconds
+	 * @param message    bytes of the message, starting with 0xF0 and ending with 0xF7
+	 * @return this list, to chain calls
+	 */
+	public MidiEventList addSysex(long timeMicros, byte[] message) {
+		if (message == null || message.length < 2 || (message[0] & 0xFF) != MidiEvent.SYSEX_START) {
+			throw new IllegalArgumentException("Sysex message must start with 0xF0");
+		}
+		insert(timeMicros, 0, message.clone());
+		return this;
+	}
+
+	/**
+	 * @return the number of messages in the list
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all the messages.
+	 */
+	public void clear() {
+		Arrays.fill(sysexMessages, 0, size, null);
+		size = 0;
+		index = -1;
+	}
+
+	private void insert(long time, int message, byte[] sysex) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			messages = Arrays.copyOf(messages, size * 2);
+			sysexMessages = Arrays.copyOf(sysexMessages, size * 2);
+		}
+		int i = firstAfter(time);
+		System.arraycopy(times, i, times, i + 1, size - i);
+		System.arraycopy(messages, i, messages, i + 1, size - i);
+		System.arraycopy(sysexMessages, i, sysexMessages, i + 1, size - i);
+		times[i] = time;
+		messages[i] = message;
+		sysexMessages[i] = sysex;
+		size++;
+	}
+
+	private int firstAfter(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public boolean next() {
+		if (index + 1 >= size) {
+			return false;
+		}
+		index++;
+		return true;
+	}
+
+	public void seek(long timeMicros) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < timeMicros) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		index = low - 1;
+	}
+
+	public long getTime() {
+		return times[index];
+	}
+
+	public int getStatus() {
+		return sysexMessages[index] != null ? MidiEvent.SYSEX_START : PackedMessage.getStatus(messages[index]);
+	}
+
+	public int getData1() {
+		return PackedMessage.getData1(messages[index]);
+	}
+
+	public int getData2() {
+		return PackedMessage.getData2(messages[index]);
+	}
+
+	public byte[] getSysexMessage() {
+		return sysexMessages[index];
+	}
+}
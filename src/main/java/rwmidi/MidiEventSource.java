@@ -0,0 +1,50 @@
+package rwmidi;
+
+/**
+ * Sequence of timed MIDI messages that can be played by a {@link MidiPlayer}. A source is a cursor: {@link #next()}
+ * moves to the next message, whose fields are then read using the getters. Messages are returned in time order.
+ * <p/>
+ * Implemented by {@link SmfEventSource} for Standard MIDI Files, {@link MidiLogReader} for logs written by
+ * {@link MidiRecorder}, and {@link MidiEventList} for messages kept in memory.
+ */
+public interface MidiEventSource {
+	/**
+	 * Move to the next message.
+	 *
+	 * @return true if there is a next message, false at the end
+	 */
+	public boolean next();
+
+	/**
+	 * Move to the first message at or after a time, so that the following call to {@link #next()} returns it.
+	 *
+	 * @param timeMicros the time in microseconds since the start of the source
+	 */
+	public void seek(long timeMicros);
+
+	/**
+	 * @return the time of the current message, in microseconds since the start of the source
+	 */
+	public long getTime();
+
+	/**
+	 * @return the status byte of the current message, 0xF0 for sysex messages
+	 */
+	public int getStatus();
+
+	/**
+	 * @return the first data byte of the current short message
+	 */
+	public int getData1();
+
+	/**
+	 * @return the second data byte of the current short message
+	 */
+	public int getData2();
+
+	/**
+	 * @return the bytes of the current sysex message, starting with 0xF0 and ending with 0xF7, or null if the current
+	 * message is not a sysex message
+	 */
+	public byte[] getSysexMessage();
+}
@@ -1,25 +1,54 @@
 package rwmidi;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
-import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
-import javax.sound.midi.Transmitter;
-import javax.xml.bind.DatatypeConverter;
+import javax.sound.midi.ShortMessage;
 
 /**
  * Represents a MIDI input used to receive MIDI data. This can be either a physical MIDI Input or a virtual device
  * like the Java Sequencer. Open a MidiInput by using {@link MidiInputDevice-createInput}, and use the {@link MidiInput-plug-Object} method
  * to register callbacks to your objects. Use {@link MidiInput-close} to clear the callback list, and use {@link MidiInput-closeMidi}
- * to close the corresponding MidiDevice (however, this will close all MidiInputs connected to this device).
+ * to disconnect the input from its MidiDevice. All the inputs and outputs of a device share a single connection to it,
+ * which is closed when the last of them is closed.
  */
 public class MidiInput implements Receiver {
 
 	javax.sound.midi.MidiDevice jDevice;
-	ArrayList<Plug> plugList;
-	ArrayList currentMessage;
+	private DeviceSession session;
+	/**
+	 * Registered plugs, only accessed while holding the lock of the input. The receive path never reads this list,
+	 * it uses the immutable dispatch table computed from it on every change.
+	 */
+	private final List<Plug> plugList = new ArrayList<Plug>();
+	private volatile DispatchTable dispatchTable = DispatchTable.EMPTY;
+	final SysexBuffer sysexBuffer = new SysexBuffer();
+	private volatile ShortMessageListener[] shortMessageListeners = new ShortMessageListener[0];
+	private volatile SysexListener[] sysexListeners = new SysexListener[0];
+	/** Number of exceptions thrown by each listener, only accessed while holding the lock of the input. */
+	private final Map<Object, Integer> listenerFailures = new IdentityHashMap<Object, Integer>();
+	private volatile DispatchQueue dispatchQueue = null;
+	private volatile ParameterDecoder parameterDecoder = null;
+	private volatile MidiTraceListener traceListener = null;
+	private volatile MidiMetrics metrics = null;
+	private volatile PlugErrorHandler plugErrorHandler = PRINT_PLUG_ERRORS;
+	private volatile int maxPlugFailures = 0;
+
+	private static final PlugErrorHandler PRINT_PLUG_ERRORS = new PlugErrorHandler() {
+		public void plugFailed(Object object, String methodName, MidiEvent event, Throwable error) {
+			new RuntimeException("Error on calling plug: " + methodName, error).printStackTrace();
+		}
+
+		public void plugDisabled(Object object, String methodName) {
+			System.err.println("Disabled plug: " + methodName + " after too many errors");
+		}
+	};
 
 	/**
 	 * Create a MidiInput from a javax.sound.midi.MidiDevice .
@@ -29,12 +58,13 @@ public class MidiInput implements Receiver {
 	 */
 	public MidiInput(javax.sound.midi.MidiDevice device) throws MidiUnavailableException {
 		this.jDevice = device;
-		device.open();
-		Transmitter trsmt = device.getTransmitter();
-		trsmt.setReceiver(this);
-		plugList = new ArrayList<Plug>();
-		currentMessage = new ArrayList();
-		System.out.println("Foo");
+		session = DeviceSession.acquire(device);
+		try {
+			session.addInput(this);
+		} catch (MidiUnavailableException e) {
+			session.release();
+			throw e;
+		}
 	}
 
 	protected MidiInput(MidiInputDevice device) throws MidiUnavailableException {
@@ -44,15 +74,25 @@ public class MidiInput implements Receiver {
 	/**
 	 * Close the MIDI input.
 	 */
-	public void close() {
+	public synchronized void close() {
 		plugList.clear();
+		updateDispatchTable();
 	}
 
 	/**
-	 * Close the MIDI device attached to this input. This will close all the other inputs as well.
+	 * Disconnect this input from its MIDI device. The device itself is closed when no other input or output uses it.
 	 */
 	public void closeMidi() {
-		jDevice.close();
+		setSynchronousDispatch();
+		DeviceSession closed;
+		synchronized (this) {
+			closed = session;
+			session = null;
+		}
+		if (closed != null) {
+			closed.removeInput(this);
+			closed.release();
+		}
 	}
 
 	public String getName() {
@@ -72,7 +112,14 @@ public class MidiInput implements Receiver {
 	public void plug(final Object object, final String methodName, final int channel, final int value) {
 		if (Plug.objectHasMethod(object, methodName)) {
 			Plug plug = new Plug(object, methodName, channel, value);
-			plugList.add(plug);
+			synchronized (this) {
+				MidiMetrics m = metrics;
+				if (m != null) {
+					plug.latency = m.callbackLatency(plug);
+				}
+				plugList.add(plug);
+				updateDispatchTable();
+			}
 		}
 	}
 
@@ -99,8 +146,10 @@ public class MidiInput implements Receiver {
 
 	/**
 	 * Register an object with standard midi callbacks on all channels. The callbacks are noteOnReceived(Note),
-	 * noteOffReceived(Note), controllerChangeReceived(Controller), programChangeReceived(ProgramChange) and
-	 * sysexReceived(SysexMessage).
+	 * noteOffReceived(Note), controllerChangeReceived(Controller), programChangeReceived(ProgramChange),
+	 * pitchBendReceived(PitchBend), aftertouchReceived(Aftertouch), polyPressureReceived(PolyPressure),
+	 * songPositionReceived(SongPosition), timeCodeReceived(TimeCode), sysexReceived(SysexMessage), and
+	 * parameterReceived(Parameter) for the changes assembled by a {@link ParameterDecoder} attached to this input.
 	 *
 	 * @param obj the object with standard callbacks
 	 */
@@ -110,8 +159,10 @@ public class MidiInput implements Receiver {
 
 	/**
 	 * Register an object with standard midi callbacks on a specific channels. The callbacks are noteOnReceived(Note),
-	 * noteOffReceived(Note), controllerChangeReceived(Controller), programChangeReceived(ProgramChange) and
-	 * sysexReceived(SysexMessage).
+	 * noteOffReceived(Note), controllerChangeReceived(Controller), programChangeReceived(ProgramChange),
+	 * pitchBendReceived(PitchBend), aftertouchReceived(Aftertouch), polyPressureReceived(PolyPressure),
+	 * songPositionReceived(SongPosition), timeCodeReceived(TimeCode), sysexReceived(SysexMessage) and
+	 * parameterReceived(Parameter). Program changes and system messages are received on all channels.
 	 *
 	 * @param obj     the object with standard callbacks
 	 * @param channel the channel on which to receive note and controller change messages
@@ -124,69 +175,607 @@ public class MidiInput implements Receiver {
 		plug(obj, "noteOffReceived", channel, MidiEvent.NOTE_OFF);
 		plug(obj, "controllerChangeReceived", channel, MidiEvent.CONTROL_CHANGE);
 		plug(obj, "programChangeReceived", -1, MidiEvent.PROGRAM_CHANGE);
+		plug(obj, "pitchBendReceived", channel, MidiEvent.PITCH_BEND);
+		plug(obj, "aftertouchReceived", channel, MidiEvent.CHANNEL_PRESSURE);
+		plug(obj, "polyPressureReceived", channel, MidiEvent.POLY_PRESSURE);
+		plug(obj, "songPositionReceived", -1, MidiEvent.SONG_POSITION);
+		plug(obj, "timeCodeReceived", -1, MidiEvent.TIME_CODE);
 		plug(obj, "sysexReceived", -1, MidiEvent.SYSEX_START);
+		plug(obj, "parameterReceived", channel, MidiEvent.CONTROL_CHANGE);
 	}
 
+	/**
+	 * Deliver a message to this input. Like any receiver connected to a transmitter, an input expects its messages
+	 * from a single thread at a time: concurrent calls must be serialized by the caller, which is what the devices and
+	 * the loopbacks do.
+	 */
 	public void send(final MidiMessage message, final long timeStamp) {
-		if ((message.getLength() > 1)) {
-			System.out.println("message " + message + " " + DatatypeConverter.printHexBinary(message.getMessage()));
-		}
-		if (message instanceof javax.sound.midi.SysexMessage || message.getStatus() == (byte) 0xF7) {
-			if (message.getStatus() == 0xF0) {
-				currentMessage.clear(); // no shortcut for sysex messages
-				currentMessage.add((byte) 0xF0);
-			}
-			for (byte b : ((javax.sound.midi.SysexMessage) message).getData()) {
-				if (b == (byte) 0xF7) {
-					currentMessage.add((byte) 0xF7);
-					byte messageBytes[] = new byte[currentMessage.size()];
-					for (int i = 0; i < currentMessage.size(); i++) {
-						messageBytes[i] = ((Byte) currentMessage.get(i)).byteValue();
-					}
-					javax.sound.midi.SysexMessage newMessage = new javax.sound.midi.SysexMessage();
-					try {
-						newMessage.setMessage(messageBytes, messageBytes.length);
-						for (Plug plug : plugList) {
-							plug.callPlug(this, newMessage);
-						}
-					} catch (InvalidMidiDataException e) {
-						throw new RuntimeException("Failed to send sysex message.", e);
-					}
-				} else {
-					currentMessage.add(b);
-				}
+		MidiTraceListener trace = traceListener;
+		if (trace != null) {
+			trace.messageReceived(this, message, timeStamp);
+		}
+		DispatchQueue queue = dispatchQueue;
+		while (queue != null) {
+			if (queue.offer(message, timeStamp) != DispatchQueue.CLOSED) {
+				return;
+			}
+			// the queue is being replaced: it has to finish before the message is handed to its successor
+			queue.awaitTermination();
+			DispatchQueue next = dispatchQueue;
+			if (next == queue) {
+				// sent from a callback of the stopped queue itself, which is still running
+				break;
 			}
+			queue = next;
+		}
+		receive(message, timeStamp);
+	}
+
+	/**
+	 * Process a message directly on the MIDI thread when using synchronous dispatch.
+	 */
+	void receive(final MidiMessage message, final long timeStamp) {
+		if (message instanceof javax.sound.midi.SysexMessage) {
+			receiveSysex(message.getMessage(), timeStamp);
+		} else if (message instanceof ShortMessage) {
+			ShortMessage sm = (ShortMessage) message;
+			receiveShort(sm.getStatus(), sm.getData1(), sm.getData2(), timeStamp);
+		}
+		// other messages, such as meta messages, only exist in files
+	}
+
+	/**
+	 * Process a short message on the dispatch thread, or directly on the MIDI thread when using synchronous dispatch.
+	 */
+	void receiveShort(final int status, final int data1, final int data2, final long timeStamp) {
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordMessage(status);
+		}
+		ParameterDecoder decoder = parameterDecoder;
+		if (decoder != null && decoder.decode(status, data1, data2, timeStamp)) {
+			sysexBuffer.reset();
+			return;
+		}
+		notifyShortMessageListeners(status, data1, data2, timeStamp);
+		if (status >= 0xF8) {
+			return;
 		} else {
-			if (message.getStatus() >= 0xF8) {
+			sysexBuffer.reset(); // discard maybe sysex message
+		}
+		Plug[] plugs = dispatchTable.route(status);
+		if (plugs.length > 0) {
+			final MidiEvent event;
+			try {
+				event = MidiEvent.create(status, data1, data2);
+			} catch (RuntimeException e) {
+				// a message that can't be decoded must not escape to the MIDI driver
+				e.printStackTrace();
+				return;
+			}
+			if (event != null) {
+				dispatch(plugs, event);
+			}
+		}
+	}
+
+	/**
+	 * @return the listener tracing the received messages, or null if tracing is disabled
+	 */
+	public MidiTraceListener getTraceListener() {
+		return traceListener;
+	}
+
+	/**
+	 * Set a listener receiving every message arriving on this input, for debugging. Use a
+	 * {@link PrintStreamTraceListener} to print the messages to the console, and null to disable tracing.
+	 *
+	 * @param listener the trace listener, or null
+	 */
+	public void setTraceListener(final MidiTraceListener listener) {
+		traceListener = listener;
+	}
+
+	/**
+	 * @return the handler notified about exceptions thrown by callbacks
+	 */
+	public PlugErrorHandler getPlugErrorHandler() {
+		return plugErrorHandler;
+	}
+
+	/**
+	 * Set the handler notified about exceptions thrown by callbacks, for example to log them or to forward the
+	 * failed events somewhere else. An exception thrown by a callback never stops the delivery of the message to the
+	 * other callbacks. Short message and sysex listeners are handled like the plugs. By default the stack trace of
+	 * the exception is printed.
+	 *
+	 * @param handler the error handler, null to restore the default one
+	 */
+	public void setPlugErrorHandler(final PlugErrorHandler handler) {
+		plugErrorHandler = handler == null ? PRINT_PLUG_ERRORS : handler;
+	}
+
+	/**
+	 * @return the number of exceptions after which a callback is disabled, 0 if callbacks are never disabled
+	 */
+	public int getMaxPlugFailures() {
+		return maxPlugFailures;
+	}
+
+	/**
+	 * Disable callbacks after they have thrown a number of exceptions. A disabled callback is removed from the
+	 * dispatch table and isn't called anymore until it is plugged again. Short message and sysex listeners are
+	 * removed the same way. By default callbacks are never disabled.
+	 *
+	 * @param maxFailures the number of exceptions after which a callback is disabled, 0 to never disable callbacks
+	 */
+	public void setMaxPlugFailures(final int maxFailures) {
+		maxPlugFailures = Math.max(0, maxFailures);
+	}
+
+	/**
+	 * @return the metrics of this input, or null if metrics are disabled
+	 */
+	public MidiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Enable or disable the recording of metrics for this input: message counts per status byte, sysex sizes,
+	 * callback times and errors. Disabling the metrics discards them. Metrics are disabled by default.
+	 *
+	 * @param enabled true to record metrics
+	 */
+	public synchronized void setMetricsEnabled(boolean enabled) {
+		if (enabled && metrics == null) {
+			MidiMetrics m = new MidiMetrics("MidiInput");
+			for (Plug plug : plugList) {
+				plug.latency = m.callbackLatency(plug);
+			}
+			metrics = m;
+		} else if (!enabled && metrics != null) {
+			metrics.unregister();
+			metrics = null;
+			for (Plug plug : plugList) {
+				plug.latency = null;
+			}
+		}
+	}
+
+	/**
+	 * Call the plugs and listeners from a dedicated dispatch thread instead of the thread delivering the MIDI data.
+	 * Incoming messages are put into a bounded queue, so a slow callback doesn't delay the MIDI driver. When the
+	 * queue is full, messages are dropped or the MIDI thread waits, depending on the overflow policy.
+	 *
+	 * @param capacity maximum number of queued messages, rounded up to a power of two
+	 * @param policy   what to do with incoming messages when the queue is full
+	 */
+	public synchronized void setAsynchronousDispatch(final int capacity, final DispatchOverflowPolicy policy) {
+		DispatchQueue previous = dispatchQueue;
+		DispatchQueue queue = new DispatchQueue(this, capacity, policy, previous);
+		if (previous != null) {
+			previous.stop();
+		}
+		dispatchQueue = queue;
+		queue.start();
+	}
+
+	/**
+	 * Call the plugs and listeners directly from the thread delivering the MIDI data, which is the default. Messages
+	 * still waiting in the dispatch queue are dispatched before this method returns, unless it is called from a
+	 * callback, in which case they are dispatched once the callback returns.
+	 */
+	public void setSynchronousDispatch() {
+		DispatchQueue queue;
+		synchronized (this) {
+			queue = dispatchQueue;
+			if (queue == null) {
+				return;
+			}
+			queue.stop();
+		}
+		// wait outside of the lock, the dispatch thread takes it when a callback fails or plugs another one
+		queue.awaitTermination();
+	}
+
+	/**
+	 * Called by the dispatch thread of a stopped queue when it has dispatched all its messages. Until then the queue
+	 * stays installed, so that the MIDI thread doesn't start dispatching directly while it is still running.
+	 */
+	synchronized void dispatchTerminated(final DispatchQueue queue) {
+		if (dispatchQueue == queue) {
+			dispatchQueue = null;
+		}
+	}
+
+	/**
+	 * @return true if the plugs and listeners are called from a dedicated dispatch thread
+	 */
+	public boolean isAsynchronousDispatch() {
+		return dispatchQueue != null;
+	}
+
+	/**
+	 * @return the number of messages waiting in the dispatch queue, 0 when using synchronous dispatch
+	 */
+	public int getDispatchQueueDepth() {
+		DispatchQueue queue = dispatchQueue;
+		return queue == null ? 0 : queue.size();
+	}
+
+	/**
+	 * @return the number of messages dropped because the dispatch queue was full, 0 when using synchronous dispatch
+	 */
+	public long getDroppedMessageCount() {
+		DispatchQueue queue = dispatchQueue;
+		return queue == null ? 0 : queue.getDroppedCount();
+	}
+
+	/**
+	 * @return the maximum size in bytes of a sysex message received on this input
+	 */
+	public int getMaxSysexSize() {
+		return sysexBuffer.getMaxSize();
+	}
+
+	/**
+	 * Set the maximum size of a sysex message received on this input, including the 0xF0 and 0xF7 bytes. Larger
+	 * messages are handled according to the sysex overflow policy. The default is 1 MB.
+	 *
+	 * @param maxSize the maximum size in bytes
+	 */
+	public void setMaxSysexSize(final int maxSize) {
+		sysexBuffer.setMaxSize(maxSize);
+	}
+
+	/**
+	 * @return the policy for sysex messages exceeding the maximum sysex size
+	 */
+	public SysexOverflowPolicy getSysexOverflowPolicy() {
+		return sysexBuffer.getOverflowPolicy();
+	}
+
+	/**
+	 * Set what happens to sysex messages exceeding the maximum sysex size. The default is to discard them.
+	 *
+	 * @param policy the overflow policy
+	 */
+	public void setSysexOverflowPolicy(final SysexOverflowPolicy policy) {
+		sysexBuffer.setOverflowPolicy(policy);
+	}
+
+	/**
+	 * Register a listener receiving the raw bytes of every short message on this input, including system realtime
+	 * messages such as MIDI clock. No event objects are created for these listeners.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void addShortMessageListener(final ShortMessageListener listener) {
+		if (listener == null) {
+			return;
+		}
+		ShortMessageListener[] listeners = shortMessageListeners;
+		ShortMessageListener[] result = new ShortMessageListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, result, 0, listeners.length);
+		result[listeners.length] = listener;
+		shortMessageListeners = result;
+		listenerFailures.remove(listener);
+	}
+
+	/**
+	 * Remove a listener added with {@link #addShortMessageListener(ShortMessageListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void removeShortMessageListener(final ShortMessageListener listener) {
+		ShortMessageListener[] listeners = shortMessageListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				ShortMessageListener[] result = new ShortMessageListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, result, 0, i);
+				System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+				shortMessageListeners = result;
 				return;
-			} else {
-				currentMessage.clear(); // discard maybe sysex message
 			}
-			for (Plug plug : plugList)
-				plug.callPlug(this, message);
 		}
 	}
 
-	public void unplug(Object obj) {
-		for (Plug plug : plugList) {
+	/**
+	 * Register a listener receiving every complete sysex message on this input as raw bytes.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void addSysexListener(final SysexListener listener) {
+		if (listener == null) {
+			return;
+		}
+		SysexListener[] listeners = sysexListeners;
+		SysexListener[] result = new SysexListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, result, 0, listeners.length);
+		result[listeners.length] = listener;
+		sysexListeners = result;
+		listenerFailures.remove(listener);
+	}
+
+	/**
+	 * Remove a listener added with {@link #addSysexListener(SysexListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void removeSysexListener(final SysexListener listener) {
+		SysexListener[] listeners = sysexListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				SysexListener[] result = new SysexListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, result, 0, i);
+				System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+				sysexListeners = result;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the callbacks registered for an object. This can be called while messages are received: a message
+	 * that is being dispatched while the object is unplugged may still be delivered to it.
+	 *
+	 * @param obj the object to unplug
+	 */
+	public synchronized void unplug(Object obj) {
+		for (Iterator<Plug> it = plugList.iterator(); it.hasNext(); ) {
+			Plug plug = it.next();
 			if (plug.getObject().equals(obj))
-				plugList.remove(plug);
+				it.remove();
 		}
+		updateDispatchTable();
 	}
 
-	public void unplug(Object obj, int channel) {
-		for (Plug plug : plugList) {
+	/**
+	 * Remove the callbacks registered for an object on a specific channel.
+	 *
+	 * @param obj     the object to unplug
+	 * @param channel the channel the callbacks were registered on
+	 */
+	public synchronized void unplug(Object obj, int channel) {
+		for (Iterator<Plug> it = plugList.iterator(); it.hasNext(); ) {
+			Plug plug = it.next();
 			if (plug.getObject().equals(obj) && plug.getChannel() == channel)
-				plugList.remove(plug);
+				it.remove();
 		}
+		updateDispatchTable();
 	}
 
-	public void unplug(Object obj, String methodName, int channel) {
-		for (Plug plug : plugList) {
+	/**
+	 * Remove a callback method registered for an object on a specific channel.
+	 *
+	 * @param obj        the object to unplug
+	 * @param methodName the name of the callback method
+	 * @param channel    the channel the callback was registered on
+	 */
+	public synchronized void unplug(Object obj, String methodName, int channel) {
+		for (Iterator<Plug> it = plugList.iterator(); it.hasNext(); ) {
+			Plug plug = it.next();
 			if (plug.getObject().equals(obj) && plug.getChannel() == channel && plug.getMethodName().equals(methodName))
-				plugList.remove(plug);
+				it.remove();
+		}
+		updateDispatchTable();
+	}
+
+	/**
+	 * Reassemble sysex messages. A message starts with a 0xF0 packet and can be continued by 0xF7 packets (as
+	 * defined by javax.sound.midi.SysexMessage) until a 0xF7 end byte is found in the data.
+	 */
+	void receiveSysex(final byte[] message, final long timeStamp) {
+		if ((message[0] & 0xFF) == MidiEvent.SYSEX_START) {
+			sysexBuffer.start();
+		} else if (!sysexBuffer.isActive()) {
+			return; // continuation without a start, or an escaped message
+		}
+		for (int i = 1; i < message.length; i++) {
+			if (message[i] == (byte) MidiEvent.SYSEX_END) {
+				sysexBuffer.append(message, 1, i - 1);
+				if (sysexBuffer.finish()) {
+					deliverSysex(timeStamp);
+				}
+				return;
+			}
+		}
+		sysexBuffer.append(message, 1, message.length - 1);
+	}
+
+	private void deliverSysex(final long timeStamp) {
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordMessage(MidiEvent.SYSEX_START);
+			m.recordSysex(sysexBuffer.getLength());
+		}
+		SysexListener[] listeners = sysexListeners;
+		for (SysexListener listener : listeners) {
+			try {
+				listener.onSysex(sysexBuffer.getBuffer(), sysexBuffer.getLength(), timeStamp);
+			} catch (Throwable e) {
+				listenerFailed(listener, "onSysex", new SysexMessage(sysexBuffer.toByteArray()), e);
+			}
+		}
+		Plug[] plugs = dispatchTable.sysexRoute();
+		if (plugs.length > 0) {
+			dispatch(plugs, new SysexMessage(sysexBuffer.toByteArray()));
+		}
+	}
+
+	private void notifyShortMessageListeners(final int status, final int data1, final int data2,
+			final long timeStamp) {
+		ShortMessageListener[] listeners = shortMessageListeners;
+		for (ShortMessageListener listener : listeners) {
+			try {
+				listener.onShortMessage(status, data1, data2, timeStamp);
+			} catch (Throwable e) {
+				listenerFailed(listener, "onShortMessage", MidiEvent.create(status, data1, data2), e);
+			}
 		}
 	}
 
+	ParameterDecoder getParameterDecoder() {
+		return parameterDecoder;
+	}
+
+	/**
+	 * Replace the decoder consuming the controllers it assembles before they reach the listeners and plugs.
+	 *
+	 * @throws IllegalStateException if the current decoder isn't the expected one
+	 */
+	synchronized void setParameterDecoder(final ParameterDecoder expected, final ParameterDecoder decoder) {
+		if (parameterDecoder != expected) {
+			throw new IllegalStateException("Another parameter decoder already consumes the controllers");
+		}
+		parameterDecoder = decoder;
+	}
+
+	/**
+	 * @return true if plugs are registered for messages with this status byte
+	 */
+	boolean hasPlugs(final int status) {
+		return dispatchTable.route(status).length != 0;
+	}
+
+	/**
+	 * Deliver an event created outside of the receive path, such as a {@link Parameter}, to the plugs registered for
+	 * its status byte.
+	 */
+	void dispatchEvent(final MidiEvent event) {
+		dispatch(dispatchTable.route(event.getStatus()), event);
+	}
+
+	/**
+	 * Hand the same event to all the given plugs. The event is shared between the plugs, so callbacks should not
+	 * modify it.
+	 */
+	private void dispatch(final Plug[] plugs, final MidiEvent event) {
+		if (plugs.length == 0) {
+			return;
+		}
+		event.setInput(this);
+		MidiMetrics m = metrics;
+		if (m == null) {
+			for (Plug plug : plugs) {
+				try {
+					plug.callPlug(event);
+				} catch (Throwable e) {
+					plugFailed(plug, event, e);
+				}
+			}
+			return;
+		}
+		final long start = System.nanoTime();
+		long time = start;
+		for (Plug plug : plugs) {
+			try {
+				plug.callPlug(event);
+			} catch (Throwable e) {
+				m.recordError();
+				plugFailed(plug, event, e);
+			}
+			long now = System.nanoTime();
+			LatencyHistogram histogram = plug.latency;
+			if (histogram != null) {
+				histogram.record(now - time);
+			}
+			time = now;
+		}
+		m.recordLatency(event.getStatus(), time - start);
+	}
 
+	/**
+	 * Report the failure of a plug to the error handler, and take the plug out of the dispatch table if it failed
+	 * too many times, so it doesn't cost anything anymore.
+	 */
+	private void plugFailed(final Plug plug, final MidiEvent event, final Throwable error) {
+		if (error instanceof VirtualMachineError) {
+			throw (VirtualMachineError) error;
+		}
+		final int failures = plug.recordFailure();
+		final PlugErrorHandler handler = plugErrorHandler;
+		try {
+			handler.plugFailed(plug.getObject(), plug.getMethodName(), event, error);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		final int max = maxPlugFailures;
+		if (max > 0 && failures >= max) {
+			boolean disabled;
+			synchronized (this) {
+				disabled = plug.disable();
+				if (disabled) {
+					updateDispatchTable();
+				}
+			}
+			if (disabled) {
+				try {
+					handler.plugDisabled(plug.getObject(), plug.getMethodName());
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Report the failure of a short message or sysex listener like the failure of a plug, and remove the listener
+	 * if it failed too many times.
+	 *
+	 * @param event the event decoded from the message passed to the listener, null if there is none
+	 */
+	private void listenerFailed(final Object listener, final String methodName, final MidiEvent event,
+			final Throwable error) {
+		if (error instanceof VirtualMachineError) {
+			throw (VirtualMachineError) error;
+		}
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordError();
+		}
+		final int failures;
+		synchronized (this) {
+			Integer previous = listenerFailures.get(listener);
+			failures = previous == null ? 1 : previous + 1;
+			listenerFailures.put(listener, failures);
+		}
+		final PlugErrorHandler handler = plugErrorHandler;
+		try {
+			handler.plugFailed(listener, methodName, event, error);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		final int max = maxPlugFailures;
+		if (max > 0 && failures >= max) {
+			boolean disabled;
+			synchronized (this) {
+				disabled = listenerFailures.remove(listener) != null;
+				if (listener instanceof ShortMessageListener) {
+					removeShortMessageListener((ShortMessageListener) listener);
+				}
+				if (listener instanceof SysexListener) {
+					removeSysexListener((SysexListener) listener);
+				}
+			}
+			if (disabled) {
+				try {
+					handler.plugDisabled(listener, methodName);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	void recordDropped() {
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordDropped();
+		}
+	}
+
+	private void updateDispatchTable() {
+		dispatchTable = new DispatchTable(plugList);
+	}
 }
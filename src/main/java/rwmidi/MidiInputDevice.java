@@ -15,6 +15,10 @@ public class MidiInputDevice extends MidiDevice {
 		super(info);
 	}
 
+	MidiInputDevice(javax.sound.midi.MidiDevice device) {
+		super(device);
+	}
+
 	/**
 	 * Create an input object for the device.
 	 *
@@ -0,0 +1,321 @@
+package rwmidi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a log written by {@link MidiRecorder}. The segment files are memory mapped and the records are decoded one
+ * at a time by {@link #next()}, directly from the files, so that logs of several gigabytes can be replayed without
+ * loading them into the heap. {@link #seek(long)} uses the index files to jump to a time without scanning the log.
+ * <p/>
+ * Times are in microseconds since the start of the recording. A reader is not thread safe.
+ */
+public class MidiLogReader implements MidiEventSource, Closeable {
+	private final List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+	private final ByteBuffer[] segments;
+	private final long[] segmentStartTimes;
+	private final long[][] indexTimes;
+	private final int[][] indexOffsets;
+	private final long startMillis;
+
+	private int segmentIndex = 0;
+	private int position = MidiRecorder.HEADER_SIZE;
+	private long time;
+	private int status;
+	private int data1;
+	private int data2;
+	private int sysexOffset;
+	private int sysexLength;
+
+	/**
+	 * Open a log.
+	 *
+	 * @param directory the directory containing the log
+	 * @param name      the name of the log, as given to the recorder
+	 * @throws IOException if the log can't be read
+	 */
+	public MidiLogReader(File directory, String name) throws IOException {
+		List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+		try {
+			File file;
+			while ((file = MidiRecorder.segmentFile(directory, name, mapped.size())).exists()) {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				files.add(raf);
+				FileChannel channel = raf.getChannel();
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (segment.limit() >= MidiRecorder.HEADER_SIZE && segment.getInt(0) == 0 && !mapped.isEmpty()
+						&& !MidiRecorder.segmentFile(directory, name, mapped.size() + 1).exists()) {
+					// created in advance by a recorder that stopped before using it
+					break;
+				}
+				if (segment.limit() < MidiRecorder.HEADER_SIZE || segment.getInt(0) != MidiRecorder.MAGIC) {
+					throw new IOException("Not a MIDI log segment: " + file);
+				}
+				if (segment.getInt(4) != MidiRecorder.VERSION) {
+					throw new IOException("Unsupported MIDI log version " + segment.getInt(4) + ": " + file);
+				}
+				mapped.add(segment);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		if (mapped.isEmpty()) {
+			throw new IOException("No MIDI log named " + name + " in " + directory);
+		}
+		segments = mapped.toArray(new ByteBuffer[mapped.size()]);
+		segmentStartTimes = new long[segments.length];
+		indexTimes = new long[segments.length][];
+		indexOffsets = new int[segments.length][];
+		for (int i = 0; i < segments.length; i++) {
+			segmentStartTimes[i] = segments[i].getLong(8);
+			readIndex(i, MidiRecorder.indexFile(directory, name, i));
+		}
+		startMillis = segments[0].getLong(16);
+		time = segmentStartTimes[0];
+	}
+
+	private void readIndex(int segment, File file) throws IOException {
+		int count = file.exists() ? (int) (file.length() / MidiRecorder.INDEX_ENTRY_SIZE) : 0;
+		indexTimes[segment] = new long[count];
+		indexOffsets[segment] = new int[count];
+		if (count == 0) {
+			// without index, seeking scans the segment from the beginning
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer index = ByteBuffer.allocate(count * MidiRecorder.INDEX_ENTRY_SIZE);
+			FileChannel channel = raf.getChannel();
+			while (index.hasRemaining() && channel.read(index) >= 0) {
+				// read until full
+			}
+			index.flip();
+			for (int i = 0; i < count; i++) {
+				indexTimes[segment][i] = index.getLong();
+				indexOffsets[segment][i] = index.getInt();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the wall clock time at which the recording started, in milliseconds since the epoch
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @return the number of segment files of the log
+	 */
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Move to the next record.
+	 *
+	 * @return true if there is a next record, false at the end of the log
+	 */
+	public boolean next() {
+		while (true) {
+			ByteBuffer segment = segments[segmentIndex];
+			if (position < segment.limit()) {
+				long delta = readVarLong(segment);
+				int value = position < segment.limit() ? segment.get(position++) & 0xFF : 0;
+				if (value >= 0x80) {
+					time += delta;
+					decode(segment, value);
+					return true;
+				}
+			}
+			// zero filled tail or end of the segment
+			if (segmentIndex == segments.length - 1) {
+				position = segment.limit();
+				return false;
+			}
+			segmentIndex++;
+			position = MidiRecorder.HEADER_SIZE;
+			time = segmentStartTimes[segmentIndex];
+		}
+	}
+
+	private void decode(ByteBuffer segment, int value) {
+		status = value;
+		data1 = 0;
+		data2 = 0;
+		if (value == MidiEvent.SYSEX_START) {
+			sysexLength = (int) readVarLong(segment) + 1;
+			sysexOffset = position;
+			position += sysexLength - 1;
+			return;
+		}
+		int length = PackedMessage.getMessageLength(value);
+		if (length > 1) {
+			data1 = segment.get(position++) & 0xFF;
+		}
+		if (length > 2) {
+			data2 = segment.get(position++) & 0xFF;
+		}
+	}
+
+	/**
+	 * Move to the first record at or after a time, so that the following call to {@link #next()} returns it.
+	 *
+	 * @param timeMicros the time to seek to, in microseconds since the start of the recording
+	 */
+	public void seek(long timeMicros) {
+		int segment = 0;
+		while (segment < segments.length - 1 && segmentStartTimes[segment + 1] < timeMicros) {
+			segment++;
+		}
+		segmentIndex = segment;
+		position = MidiRecorder.HEADER_SIZE;
+		time = segmentStartTimes[segment];
+		// last index entry whose previous record is before the time
+		long[] times = indexTimes[segment];
+		int low = 0;
+		int high = times.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < timeMicros) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (found != -1) {
+			position = indexOffsets[segment][found];
+			time = times[found];
+		}
+		// scan to the first record at or after the time
+		while (true) {
+			int savedSegment = segmentIndex;
+			int savedPosition = position;
+			long savedTime = time;
+			if (!next() || time >= timeMicros) {
+				segmentIndex = savedSegment;
+				position = savedPosition;
+				time = savedTime;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Move back to before the first record.
+	 */
+	public void rewind() {
+		segmentIndex = 0;
+		position = MidiRecorder.HEADER_SIZE;
+		time = segmentStartTimes[0];
+	}
+
+	/**
+	 * @return the time of the current record, in microseconds since the start of the recording
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the status byte of the current record, 0xF0 for sysex messages
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the first data byte of the current short message
+	 */
+	public int getData1() {
+		return data1;
+	}
+
+	/**
+	 * @return the second data byte of the current short message
+	 */
+	public int getData2() {
+		return data2;
+	}
+
+	/**
+	 * @return true if the current record is a sysex message
+	 */
+	public boolean isSysex() {
+		return status == MidiEvent.SYSEX_START;
+	}
+
+	/**
+	 * @return the length of the current sysex message, including the 0xF0 and 0xF7 bytes
+	 */
+	public int getSysexLength() {
+		return isSysex() ? sysexLength : 0;
+	}
+
+	/**
+	 * Copy the current sysex message into an array.
+	 *
+	 * @param dest   the array to copy into, must have room for {@link #getSysexLength()} bytes
+	 * @param offset the index of the first byte to write
+	 * @return the number of copied bytes
+	 */
+	public int getSysex(byte[] dest, int offset) {
+		int length = getSysexLength();
+		if (length == 0) {
+			return 0;
+		}
+		dest[offset] = (byte) MidiEvent.SYSEX_START;
+		ByteBuffer segment = segments[segmentIndex];
+		for (int i = 1; i < length; i++) {
+			dest[offset + i] = segment.get(sysexOffset + i - 1);
+		}
+		return length;
+	}
+
+	/**
+	 * @return a copy of the current sysex message, or null if the current record is not a sysex message
+	 */
+	public byte[] getSysexMessage() {
+		if (!isSysex()) {
+			return null;
+		}
+		byte[] result = new byte[sysexLength];
+		getSysex(result, 0);
+		return result;
+	}
+
+	private long readVarLong(ByteBuffer segment) {
+		long value = 0;
+		int shift = 0;
+		while (position < segment.limit()) {
+			int b = segment.get(position++);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+			shift += 7;
+		}
+		return value;
+	}
+
+	/**
+	 * Close the segment files. The reader must not be used anymore after closing.
+	 */
+	public void close() throws IOException {
+		for (RandomAccessFile file : files) {
+			file.close();
+		}
+		files.clear();
+	}
+}
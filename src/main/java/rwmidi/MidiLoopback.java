@@ -0,0 +1,72 @@
+package rwmidi;
+
+/**
+ * Virtual MIDI port living in the JVM: every message sent on an output of the loopback is delivered directly to
+ * all the inputs of the loopback, on the sending thread, without going through a MIDI driver. This can be used to
+ * route MIDI between parts of an application, or to run a program without MIDI hardware.
+ * <p/>
+ * A message sent while the loopback is already delivering one, from another thread or from a callback, is delivered
+ * by the thread already delivering once it is done, so the send may return before the inputs have received it.
+ * <p/>
+ * Create a loopback using {@link RWMidi#createLoopback(String)}. Until it is removed with
+ * {@link RWMidi#removeLoopback(MidiLoopback)}, it is also listed among the input and output devices of RWMidi.
+ */
+public class MidiLoopback {
+	private final LoopbackDevice device;
+	private final MidiInputDevice inputDevice;
+	private final MidiOutputDevice outputDevice;
+
+	MidiLoopback(String name) {
+		device = new LoopbackDevice(name);
+		inputDevice = new MidiInputDevice(device);
+		outputDevice = new MidiOutputDevice(device);
+	}
+
+	/**
+	 * @return the name of the loopback device, as returned by the input and output devices
+	 */
+	public String getName() {
+		return inputDevice.getName();
+	}
+
+	/**
+	 * @return the device used to create inputs receiving the messages sent on the loopback
+	 */
+	public MidiInputDevice getInputDevice() {
+		return inputDevice;
+	}
+
+	/**
+	 * @return the device used to create outputs sending messages on the loopback
+	 */
+	public MidiOutputDevice getOutputDevice() {
+		return outputDevice;
+	}
+
+	/**
+	 * Create an input receiving the messages sent on the loopback.
+	 *
+	 * @return the created input
+	 */
+	public MidiInput createInput() {
+		return inputDevice.createInput();
+	}
+
+	/**
+	 * Create an output sending messages on the loopback.
+	 *
+	 * @return the created output
+	 */
+	public MidiOutput createOutput() {
+		return outputDevice.createOutput();
+	}
+
+	javax.sound.midi.MidiDevice getDevice() {
+		return device;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,298 @@
+package rwmidi;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of a {@link MidiInput} or {@link MidiOutput}. Messages are counted and their latency
+ * is recorded per status byte, that is per command and channel. For an input, the latency is the time spent in the
+ * callbacks for a message, and is also recorded per callback method. For an output, it is the time spent in the send method of the device
+ * receiver. Errors are exceptions thrown by callbacks, or invalid messages passed to an output.
+ * <p/>
+ * Metrics are disabled by default. Enable them using {@link MidiInput#setMetricsEnabled(boolean)} or
+ * {@link MidiOutput#setMetricsEnabled(boolean)}. All the counters can be read while messages are being recorded, and
+ * can be exported through JMX using {@link #register(String)}.
+ */
+public class MidiMetrics implements MidiMetricsMBean {
+	private final String type;
+	private final AtomicLongArray messageCounts = new AtomicLongArray(256);
+	private final AtomicLong sysexCount = new AtomicLong();
+	private final AtomicLong sysexBytes = new AtomicLong();
+	private final AtomicLong maxSysexSize = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicReferenceArray<LatencyHistogram> statusLatencies =
+			new AtomicReferenceArray<LatencyHistogram>(256);
+	private final ConcurrentMap<String, LatencyHistogram> callbackLatencies =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+	private ObjectName objectName = null;
+
+	MidiMetrics(String type) {
+		this.type = type;
+	}
+
+	void recordMessage(final int status) {
+		messageCounts.incrementAndGet(status & 0xFF);
+	}
+
+	void recordSysex(final int size) {
+		sysexCount.incrementAndGet();
+		sysexBytes.addAndGet(size);
+		long current = maxSysexSize.get();
+		while (size > current && !maxSysexSize.compareAndSet(current, size)) {
+			current = maxSysexSize.get();
+		}
+	}
+
+	void recordError() {
+		errorCount.incrementAndGet();
+	}
+
+	void recordDropped() {
+		droppedCount.incrementAndGet();
+	}
+
+	void recordLatency(final int status, final long nanos) {
+		latency.record(nanos);
+		getLatency(status).record(nanos);
+	}
+
+	/**
+	 * Look up the histogram of a callback method. This is done once when the plug is registered or the metrics are
+	 * enabled, the plug then records into the histogram directly.
+	 */
+	LatencyHistogram callbackLatency(final Plug plug) {
+		final String name = plug.getName();
+		LatencyHistogram histogram = callbackLatencies.get(name);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = callbackLatencies.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the number of short and sysex messages
+	 */
+	public long getMessageCount() {
+		long result = 0;
+		for (int i = 0; i < 256; i++) {
+			result += messageCounts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @param status a status byte, for example 0x93 for NOTE ON messages on channel 3, or 0xF0 for sysex messages
+	 * @return the number of messages with this status byte
+	 */
+	public long getMessageCount(int status) {
+		return messageCounts.get(status & 0xFF);
+	}
+
+	/**
+	 * @param command the command, for example 0x90 for NOTE ON
+	 * @param channel the channel
+	 * @return the number of messages with this command on the channel
+	 */
+	public long getMessageCount(int command, int channel) {
+		return messageCounts.get((command & 0xF0) | (channel & 0x0F));
+	}
+
+	/**
+	 * @return the number of channel messages (status bytes 0x80 to 0xEF)
+	 */
+	public long getChannelMessageCount() {
+		long result = 0;
+		for (int i = 0x80; i < 0xF0; i++) {
+			result += messageCounts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of system messages, including sysex and realtime messages
+	 */
+	public long getSystemMessageCount() {
+		long result = 0;
+		for (int i = 0xF0; i < 0x100; i++) {
+			result += messageCounts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of complete sysex messages
+	 */
+	public long getSysexCount() {
+		return sysexCount.get();
+	}
+
+	/**
+	 * @return the total size of the complete sysex messages in bytes
+	 */
+	public long getSysexBytes() {
+		return sysexBytes.get();
+	}
+
+	/**
+	 * @return the size of the largest sysex message in bytes
+	 */
+	public long getMaxSysexSize() {
+		return maxSysexSize.get();
+	}
+
+	/**
+	 * @return the number of exceptions thrown by callbacks, or of invalid messages for an output
+	 */
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * @return the number of messages dropped by the dispatch queue of an input
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the histogram of the callback time per message for an input, or of the send time for an output
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @param status a status byte, for example 0x93 for NOTE ON messages on channel 3, or 0xF0 for sysex messages
+	 * @return the histogram of the latency of the messages with this status byte
+	 */
+	public LatencyHistogram getLatency(int status) {
+		final int index = status & 0xFF;
+		LatencyHistogram histogram = statusLatencies.get(index);
+		if (histogram == null) {
+			// created on the first message with this status, which keeps unused status bytes free
+			LatencyHistogram created = new LatencyHistogram();
+			if (statusLatencies.compareAndSet(index, null, created)) {
+				histogram = created;
+			} else {
+				histogram = statusLatencies.get(index);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * @param command the command, for example 0x90 for NOTE ON
+	 * @param channel the channel
+	 * @return the histogram of the latency of the messages with this command on the channel
+	 */
+	public LatencyHistogram getLatency(int command, int channel) {
+		return getLatency((command & 0xF0) | (channel & 0x0F));
+	}
+
+	/**
+	 * @return the histograms of the time spent in each callback method, by class and method name
+	 */
+	public Map<String, LatencyHistogram> getCallbackLatencies() {
+		return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(callbackLatencies));
+	}
+
+	public double getMeanLatency() {
+		return latency.getMean();
+	}
+
+	public long getLatencyP50() {
+		return latency.getValueAtPercentile(50);
+	}
+
+	public long getLatencyP99() {
+		return latency.getValueAtPercentile(99);
+	}
+
+	public long getMaxLatency() {
+		return latency.getMax();
+	}
+
+	/**
+	 * Reset all the counters and histograms.
+	 */
+	public void reset() {
+		for (int i = 0; i < 256; i++) {
+			messageCounts.set(i, 0);
+		}
+		sysexCount.set(0);
+		sysexBytes.set(0);
+		maxSysexSize.set(0);
+		errorCount.set(0);
+		droppedCount.set(0);
+		latency.reset();
+		for (int i = 0; i < 256; i++) {
+			LatencyHistogram histogram = statusLatencies.get(i);
+			if (histogram != null) {
+				histogram.reset();
+			}
+		}
+		// the plugs keep a reference to their histogram, so it is reset rather than removed
+		for (LatencyHistogram histogram : callbackLatencies.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server, under the name rwmidi:type=MidiInput,name=... (or
+	 * type=MidiOutput), replacing a previous registration of these metrics.
+	 *
+	 * @param name the name under which to register the metrics, for example the name of the port
+	 */
+	public synchronized void register(String name) {
+		unregister();
+		try {
+			ObjectName result = new ObjectName("rwmidi", "type", type);
+			result = new ObjectName(result.getCanonicalName() + ",name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, result);
+			objectName = result;
+		} catch (JMException e) {
+			throw new RuntimeException("Unable to register midi metrics: " + name, e);
+		}
+	}
+
+	/**
+	 * Remove the metrics from the platform MBean server if they have been registered.
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		objectName = null;
+	}
+
+	@Override
+	public String toString() {
+		return type + " messages: " + getMessageCount() + " sysex: " + getSysexCount() + " errors: " + getErrorCount()
+				+ " dropped: " + getDroppedCount() + " latency: " + latency;
+	}
+}
@@ -0,0 +1,32 @@
+package rwmidi;
+
+/**
+ * JMX view of {@link MidiMetrics}. Durations are in nanoseconds.
+ */
+public interface MidiMetricsMBean {
+	long getMessageCount();
+
+	long getChannelMessageCount();
+
+	long getSystemMessageCount();
+
+	long getSysexCount();
+
+	long getSysexBytes();
+
+	long getMaxSysexSize();
+
+	long getErrorCount();
+
+	long getDroppedCount();
+
+	double getMeanLatency();
+
+	long getLatencyP50();
+
+	long getLatencyP99();
+
+	long getMaxLatency();
+
+	void reset();
+}
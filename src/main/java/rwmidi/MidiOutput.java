@@ -1,6 +1,7 @@
 package rwmidi;
 
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
@@ -12,11 +13,27 @@ import javax.sound.midi.ShortMessage;
 public class MidiOutput {
 	private Receiver receiver;
 	private javax.sound.midi.MidiDevice device;
+	private DeviceSession session;
+	private volatile boolean reuseMessages = false;
+	private MidiScheduler scheduler = null;
+	private volatile MidiMetrics metrics = null;
+	private volatile ShortMessageListener[] shortMessageListeners = new ShortMessageListener[0];
+	private final ThreadLocal<ReusableShortMessage> reusableMessage = new ThreadLocal<ReusableShortMessage>() {
+		@Override
+		protected ReusableShortMessage initialValue() {
+			return new ReusableShortMessage();
+		}
+	};
 
 	public MidiOutput(javax.sound.midi.MidiDevice device) throws MidiUnavailableException {
 		this.device = device;
-		device.open();
-		receiver = device.getReceiver();
+		session = DeviceSession.acquire(device);
+		try {
+			receiver = session.getReceiver();
+		} catch (MidiUnavailableException e) {
+			session.release();
+			throw e;
+		}
 	}
 
 	public MidiOutput(MidiOutputDevice device) throws MidiUnavailableException {
@@ -24,10 +41,20 @@ public class MidiOutput {
 	}
 
 	/**
-	 * Close the device associated with this output. This will close other outputs connected to this device as well.
+	 * Disconnect this output from its MIDI device. The device itself is closed when no other input or output uses it.
 	 */
 	public void closeMidi() {
-		device.close();
+		DeviceSession closed;
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.stop();
+			}
+			closed = session;
+			session = null;
+		}
+		if (closed != null) {
+			closed.release();
+		}
 	}
 
 	public String getName() {
@@ -35,6 +62,129 @@ public class MidiOutput {
 		return info.getName() + " " + info.getVendor();
 	}
 
+	/**
+	 * @return true if the send methods reuse message objects instead of allocating a new one for every message
+	 */
+	public boolean isReuseMessages() {
+		return reuseMessages;
+	}
+
+	/**
+	 * Make the send methods reuse one message object per sending thread instead of allocating a new message for every
+	 * call. Only enable this if the receiver of the device is done with a message when its send method returns (this
+	 * is the case for most hardware outputs), because the message is overwritten by the next call on the same thread.
+	 * Disabled by default.
+	 *
+	 * @param reuseMessages true to reuse message objects
+	 */
+	public void setReuseMessages(boolean reuseMessages) {
+		this.reuseMessages = reuseMessages;
+	}
+
+	/**
+	 * @return the current position of the device in microseconds, -1 if the device doesn't support time stamps
+	 */
+	public long getMicrosecondPosition() {
+		return device.getMicrosecondPosition();
+	}
+
+	/**
+	 * Return the scheduler used to send messages on this output at a given time. The scheduler thread is started when
+	 * the first message is scheduled.
+	 *
+	 * @return the scheduler of this output
+	 */
+	public synchronized MidiScheduler getScheduler() {
+		if (scheduler == null) {
+			scheduler = new MidiScheduler(this);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Send a NOTE ON message on this output at a given time.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param channel  Channel on which to send the message
+	 * @param note     Note pitch
+	 * @param velocity Note velocity
+	 * @return true on success, false on error
+	 */
+	public boolean sendNoteOnAt(long nanoTime, int channel, int note, int velocity) {
+		return scheduleChannelMessage(nanoTime, MidiEvent.NOTE_ON, channel, note, velocity);
+	}
+
+	/**
+	 * Send a NOTE OFF message on this output at a given time.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param channel  Channel on which to send the message
+	 * @param note     Note pitch
+	 * @param velocity Note velocity
+	 * @return true on success, false on error
+	 */
+	public boolean sendNoteOffAt(long nanoTime, int channel, int note, int velocity) {
+		return scheduleChannelMessage(nanoTime, MidiEvent.NOTE_OFF, channel, note, velocity);
+	}
+
+	/**
+	 * Send a Controller change message on this output at a given time.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param channel  Channel on which to send the message
+	 * @param cc       Controller Change number
+	 * @param value    Controller Change value
+	 * @return true on success, false on error
+	 */
+	public boolean sendControllerAt(long nanoTime, int channel, int cc, int value) {
+		return scheduleChannelMessage(nanoTime, MidiEvent.CONTROL_CHANGE, channel, cc, value);
+	}
+
+	/**
+	 * Send a short message given as raw bytes on this output at a given time.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param status   status byte of the message, including the channel
+	 * @param data1    first data byte
+	 * @param data2    second data byte
+	 * @return true on success, false on error
+	 */
+	public boolean sendShortMessageAt(long nanoTime, int status, int data1, int data2) {
+		return getScheduler().schedule(nanoTime, status, data1, data2);
+	}
+
+	/**
+	 * @return the metrics of this output, or null if metrics are disabled
+	 */
+	public MidiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Enable or disable the recording of metrics for this output: message counts per status byte, sysex sizes, time
+	 * spent in the device receiver and invalid messages. Disabling the metrics discards them. Metrics are disabled
+	 * by default.
+	 *
+	 * @param enabled true to record metrics
+	 */
+	public synchronized void setMetricsEnabled(boolean enabled) {
+		if (enabled && metrics == null) {
+			metrics = new MidiMetrics("MidiOutput");
+		} else if (!enabled && metrics != null) {
+			metrics.unregister();
+			metrics = null;
+		}
+	}
+
+	/**
+	 * Create an empty batch of messages to be sent back-to-back on this output.
+	 *
+	 * @return the new batch
+	 */
+	public MidiBatch batch() {
+		return new MidiBatch(this);
+	}
+
 	/**
 	 * Send a Controller change message on this output.
 	 *
@@ -44,15 +194,7 @@ public class MidiOutput {
 	 * @return true on success, false on error
 	 */
 	public boolean sendController(int channel, int cc, int value) {
-		ShortMessage msg = new ShortMessage();
-		try {
-			msg.setMessage(MidiEvent.CONTROL_CHANGE, channel, cc, value);
-			receiver.send(msg, -1);
-			return true;
-		} catch (InvalidMidiDataException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return send(MidiEvent.CONTROL_CHANGE, channel, cc, value, -1);
 	}
 
 	/**
@@ -64,15 +206,7 @@ public class MidiOutput {
 	 * @return true on success, false on error
 	 */
 	public boolean sendNoteOff(int channel, int note, int velocity) {
-		ShortMessage msg = new ShortMessage();
-		try {
-			msg.setMessage(MidiEvent.NOTE_OFF, channel, note, velocity);
-			receiver.send(msg, -1);
-			return true;
-		} catch (InvalidMidiDataException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return send(MidiEvent.NOTE_OFF, channel, note, velocity, -1);
 	}
 
 	/**
@@ -84,15 +218,7 @@ public class MidiOutput {
 	 * @return true on success, false on error
 	 */
 	public boolean sendNoteOn(int channel, int note, int velocity) {
-		ShortMessage msg = new ShortMessage();
-		try {
-			msg.setMessage(MidiEvent.NOTE_ON, channel, note, velocity);
-			receiver.send(msg, -1);
-			return true;
-		} catch (InvalidMidiDataException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return send(MidiEvent.NOTE_ON, channel, note, velocity, -1);
 	}
 
 	/**
@@ -102,17 +228,123 @@ public class MidiOutput {
 	 * @return true on success, false on error
 	 */
 	public boolean sendProgramChange(int value) {
+		return send(MidiEvent.PROGRAM_CHANGE, value, 0, -1);
+	}
+
+	/**
+	 * Send a short message given as raw bytes on this output. The data bytes that are not used by the message are
+	 * ignored.
+	 *
+	 * @param status status byte of the message, including the channel
+	 * @param data1  first data byte
+	 * @param data2  second data byte
+	 * @return true on success, false on error
+	 */
+	public boolean sendShortMessage(int status, int data1, int data2) {
+		return send(status, data1, data2, -1);
+	}
+
+	/**
+	 * Send a channel message. An invalid channel is counted as an error, like an invalid message.
+	 */
+	boolean send(final int command, final int channel, final int data1, final int data2, final long timeStamp) {
+		if (channel < 0 || channel > 0x0F) {
+			recordError();
+			return false;
+		}
+		return send(command | channel, data1, data2, timeStamp);
+	}
+
+	/**
+	 * Send a short message, using the reusable message of the current thread if enabled. Invalid messages go through
+	 * ShortMessage.setMessage to report the error.
+	 */
+	boolean send(final int status, final int data1, final int data2, final long timeStamp) {
+		if (PackedMessage.isValid(status, data1, data2)) {
+			sendValid(status, data1, data2, timeStamp);
+			return true;
+		}
 		ShortMessage msg = new ShortMessage();
 		try {
-			msg.setMessage(MidiEvent.PROGRAM_CHANGE, value, -1);
-			receiver.send(msg, -1);
-			return true;
+			msg.setMessage(status, data1, data2);
 		} catch (InvalidMidiDataException e) {
 			e.printStackTrace();
+			recordError();
 			return false;
 		}
+		deliver(msg, timeStamp);
+		notifyShortMessageListeners(msg.getStatus(), msg.getData1(), msg.getData2(), timeStamp);
+		return true;
 	}
 
+	private boolean scheduleChannelMessage(long nanoTime, int command, int channel, int data1, int data2) {
+		if (channel < 0 || channel > 0x0F) {
+			return false;
+		}
+		return getScheduler().schedule(nanoTime, command | channel, data1, data2);
+	}
+
+	/**
+	 * Send a short message that has already been checked with {@link PackedMessage#isValid(int, int, int)}.
+	 */
+	void sendValid(final int status, final int data1, final int data2, final long timeStamp) {
+		final ShortMessage msg;
+		if (reuseMessages) {
+			ReusableShortMessage reusable = reusableMessage.get();
+			reusable.set(status, data1, data2);
+			msg = reusable;
+		} else {
+			ReusableShortMessage fresh = new ReusableShortMessage();
+			fresh.set(status, data1, data2);
+			msg = fresh;
+		}
+		deliver(msg, timeStamp);
+		notifyShortMessageListeners(status, data1, data2, timeStamp);
+	}
+
+	/**
+	 * Register a listener receiving the raw bytes of every short message sent on this output, after it has been
+	 * handed to the device. This includes the messages sent by the scheduler and by batches.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void addShortMessageListener(final ShortMessageListener listener) {
+		if (listener == null) {
+			return;
+		}
+		ShortMessageListener[] listeners = shortMessageListeners;
+		ShortMessageListener[] result = new ShortMessageListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, result, 0, listeners.length);
+		result[listeners.length] = listener;
+		shortMessageListeners = result;
+	}
+
+	/**
+	 * Remove a listener added with {@link #addShortMessageListener(ShortMessageListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void removeShortMessageListener(final ShortMessageListener listener) {
+		ShortMessageListener[] listeners = shortMessageListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				ShortMessageListener[] result = new ShortMessageListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, result, 0, i);
+				System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+				shortMessageListeners = result;
+				return;
+			}
+		}
+	}
+
+	private void notifyShortMessageListeners(final int status, final int data1, final int data2, final long timeStamp) {
+		final ShortMessageListener[] listeners = shortMessageListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].onShortMessage(status, data1, data2, timeStamp);
+		}
+	}
+
+
 	public boolean sendSysex(SysexMessage msg) {
 		return sendSysex(msg.getMessage());
 	}
@@ -124,14 +356,45 @@ public class MidiOutput {
 	 * @return true on success, false on error
 	 */
 	public boolean sendSysex(byte[] msg) {
+		return sendSysex(msg, 0);
+	}
+
+	boolean sendSysex(byte[] msg, long timeStamp) {
 		javax.sound.midi.SysexMessage msg2 = new javax.sound.midi.SysexMessage();
 		try {
 			msg2.setMessage(msg, msg.length);
-			receiver.send(msg2, 0);
-			return true;
 		} catch (InvalidMidiDataException e) {
 			e.printStackTrace();
+			recordError();
 			return false;
 		}
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordSysex(msg.length);
+		}
+		deliver(msg2, timeStamp);
+		return true;
+	}
+
+	/**
+	 * Hand a message to the device receiver, recording metrics if enabled.
+	 */
+	private void deliver(final MidiMessage msg, final long timeStamp) {
+		MidiMetrics m = metrics;
+		if (m == null) {
+			receiver.send(msg, timeStamp);
+			return;
+		}
+		m.recordMessage(msg.getStatus());
+		final long start = System.nanoTime();
+		receiver.send(msg, timeStamp);
+		m.recordLatency(msg.getStatus(), System.nanoTime() - start);
+	}
+
+	private void recordError() {
+		MidiMetrics m = metrics;
+		if (m != null) {
+			m.recordError();
+		}
 	}
 }
@@ -14,6 +14,10 @@ public class MidiOutputDevice extends MidiDevice {
 		super(info);
 	}
 
+	MidiOutputDevice(javax.sound.midi.MidiDevice device) {
+		super(device);
+	}
+
 	/**
 	 * Create an output object for the MIDI device.
 	 * @return the created output
@@ -0,0 +1,350 @@
+package rwmidi;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link MidiEventSource} on a {@link MidiOutput}. A dedicated thread reads the source ahead of the playback
+ * position and hands the messages due within the lookahead window to a scheduler owned by the player, which sends
+ * them at their exact time. Stalls of the application, or of the player thread itself, shorter than the lookahead
+ * window don't affect the timing.
+ * <p/>
+ * The player supports seeking, a playback speed factor and a loop region. The notes started by the player are
+ * tracked, and released when the playback stops, seeks or loops. The difference between the scheduled and the actual
+ * send time of every message is recorded in the histogram returned by {@link #getTimingError()}.
+ */
+public class MidiPlayer {
+	public static final long DEFAULT_LOOKAHEAD_MICROS = 50000L;
+	private static final long START_DELAY_NANOS = 5000000L;
+
+	private final MidiOutput output;
+	private final MidiEventSource source;
+	private final MidiScheduler scheduler;
+	private final LatencyHistogram timingError = new LatencyHistogram();
+	// one bit per channel and note started by the player, and the time of its note off if it has been scheduled
+	private final long[] heldNotes = new long[16 * 128 / 64];
+	private final long[] noteOffScheduled = new long[16 * 128 / 64];
+	private final long[] noteOffTimes = new long[16 * 128];
+
+	private volatile Thread thread = null;
+	private long lookaheadNanos = DEFAULT_LOOKAHEAD_MICROS * 1000L;
+	private double speed = 1.0;
+	private long loopStart = 0;
+	private long loopEnd = -1;
+
+	// playback position: originMicros in the source is played at originNanos
+	private long position = 0;
+	private long originMicros = 0;
+	private long originNanos = 0;
+	private boolean looped = false;
+	// true if the current message of the source has not been scheduled yet
+	private boolean pending = false;
+
+	/**
+	 * Create a player.
+	 *
+	 * @param output the output to play on
+	 * @param source the messages to play
+	 */
+	public MidiPlayer(MidiOutput output, MidiEventSource source) {
+		this.output = output;
+		this.source = source;
+		this.scheduler = new MidiScheduler(output);
+		scheduler.latenessHistogram = timingError;
+	}
+
+	/**
+	 * @return the scheduler sending the messages of the player, to configure its timing
+	 */
+	public MidiScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return the difference between the scheduled and the actual send time of the messages, in nanoseconds
+	 */
+	public LatencyHistogram getTimingError() {
+		return timingError;
+	}
+
+	/**
+	 * Start playing from the current position.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		restart();
+		Thread player = new Thread(new Runnable() {
+			public void run() {
+				playLoop();
+			}
+		}, "rwmidi player " + output.getName());
+		player.setDaemon(true);
+		player.setPriority(Thread.MAX_PRIORITY);
+		thread = player;
+		player.start();
+	}
+
+	/**
+	 * Stop playing, keeping the current position. The messages that have not been sent yet are discarded, and the
+	 * notes started by the player are released.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		position = getPosition();
+		LockSupport.unpark(thread);
+		thread = null;
+		cancel();
+	}
+
+	/**
+	 * @return true if the player is playing
+	 */
+	public boolean isPlaying() {
+		return thread != null;
+	}
+
+	/**
+	 * Move the playback position.
+	 *
+	 * @param timeMicros the new position, in microseconds since the start of the source
+	 */
+	public synchronized void seek(long timeMicros) {
+		position = Math.max(timeMicros, 0);
+		if (thread != null) {
+			cancel();
+			restart();
+		}
+	}
+
+	/**
+	 * @return the playback position, in microseconds since the start of the source
+	 */
+	public synchronized long getPosition() {
+		if (thread == null) {
+			return position;
+		}
+		long current = originMicros + (long) ((System.nanoTime() - originNanos) / 1000.0 * speed);
+		if (current < originMicros) {
+			// the player thread has already wrapped around the loop, but the end of the loop is still playing
+			current = looped ? current + (loopEnd - loopStart) : originMicros;
+		}
+		return current;
+	}
+
+	/**
+	 * Play a region of the source over and over. The region is played once the playback position reaches it.
+	 *
+	 * @param startMicros the start of the region, in microseconds since the start of the source
+	 * @param endMicros   the end of the region, in microseconds since the start of the source
+	 */
+	public synchronized void setLoop(long startMicros, long endMicros) {
+		if (startMicros < 0 || endMicros <= startMicros) {
+			throw new IllegalArgumentException("Invalid loop region: " + startMicros + " - " + endMicros);
+		}
+		loopStart = startMicros;
+		loopEnd = endMicros;
+	}
+
+	/**
+	 * Stop looping, the playback continues after the end of the loop region.
+	 */
+	public synchronized void clearLoop() {
+		loopEnd = -1;
+	}
+
+	/**
+	 * @return the playback speed, 1 being the speed of the source
+	 */
+	public synchronized double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Set the playback speed. Changing the speed while playing restarts the playback from the current position.
+	 *
+	 * @param speed the playback speed, 1 being the speed of the source
+	 */
+	public synchronized void setSpeed(double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("Speed must be positive, got " + speed);
+		}
+		long current = getPosition();
+		this.speed = speed;
+		if (thread != null) {
+			seek(current);
+		}
+	}
+
+	/**
+	 * @return the time ahead of the playback position at which messages are handed to the scheduler, in microseconds
+	 */
+	public synchronized long getLookahead() {
+		return lookaheadNanos / 1000L;
+	}
+
+	/**
+	 * Set the time ahead of the playback position at which messages are handed to the scheduler. Longer windows
+	 * tolerate longer stalls, but delay the effect of stopping and seeking on the scheduled messages. The default is
+	 * 50 milliseconds.
+	 *
+	 * @param micros the lookahead in microseconds
+	 */
+	public synchronized void setLookahead(long micros) {
+		if (micros <= 0) {
+			throw new IllegalArgumentException("Lookahead must be positive, got " + micros);
+		}
+		lookaheadNanos = micros * 1000L;
+	}
+
+	/**
+	 * Stop playing, and stop the scheduler thread of the player.
+	 */
+	public void close() {
+		stop();
+		scheduler.stop();
+	}
+
+	private void restart() {
+		originMicros = position;
+		originNanos = System.nanoTime() + START_DELAY_NANOS;
+		looped = false;
+		pending = false;
+		source.seek(position);
+	}
+
+	private void cancel() {
+		scheduler.cancelAll();
+		releaseNotes(-1);
+	}
+
+	private void playLoop() {
+		while (true) {
+			synchronized (this) {
+				if (thread != Thread.currentThread()) {
+					return;
+				}
+				if (!fill()) {
+					thread = null;
+					return;
+				}
+			}
+			LockSupport.parkNanos(this, lookaheadNanos / 4);
+		}
+	}
+
+	/**
+	 * Schedule the messages of the source due before the end of the lookahead window.
+	 *
+	 * @return false if the end of the source has been reached
+	 */
+	private boolean fill() {
+		long horizon = System.nanoTime() + lookaheadNanos;
+		boolean looping = loopEnd > loopStart;
+		while (true) {
+			if (!pending) {
+				if (!source.next()) {
+					if (looping && originMicros < loopEnd) {
+						if (!wrap(horizon)) {
+							return true;
+						}
+						continue;
+					}
+					position = originMicros + (long) ((System.nanoTime() - originNanos) / 1000.0 * speed);
+					return false;
+				}
+				pending = true;
+			}
+			long time = source.getTime();
+			if (looping && time >= loopEnd && originMicros < loopEnd) {
+				if (!wrap(horizon)) {
+					return true;
+				}
+				continue;
+			}
+			long due = toNanos(time);
+			if (due - horizon > 0) {
+				return true;
+			}
+			schedule(due);
+			pending = false;
+		}
+	}
+
+	/**
+	 * Jump back to the start of the loop, once the end of the loop is within the lookahead window.
+	 *
+	 * @return false if the end of the loop is not within the window yet
+	 */
+	private boolean wrap(long horizon) {
+		long end = toNanos(loopEnd);
+		if (end - horizon > 0) {
+			return false;
+		}
+		releaseNotes(end);
+		originMicros = loopStart;
+		originNanos = end;
+		looped = true;
+		pending = false;
+		source.seek(loopStart);
+		return true;
+	}
+
+	private long toNanos(long micros) {
+		return originNanos + (long) ((micros - originMicros) * 1000.0 / speed);
+	}
+
+	private void schedule(long due) {
+		int status = source.getStatus();
+		if (status == MidiEvent.SYSEX_START) {
+			scheduler.scheduleSysex(due, source.getSysexMessage());
+			return;
+		}
+		int data1 = source.getData1();
+		int data2 = source.getData2();
+		if (scheduler.schedule(due, status, data1, data2)) {
+			int command = status & 0xF0;
+			if (command == MidiEvent.NOTE_ON || command == MidiEvent.NOTE_OFF) {
+				int bit = ((status & 0x0F) << 7) | data1;
+				if (command == MidiEvent.NOTE_ON && data2 > 0) {
+					heldNotes[bit >>> 6] |= 1L << bit;
+					noteOffScheduled[bit >>> 6] &= ~(1L << bit);
+				} else {
+					noteOffScheduled[bit >>> 6] |= 1L << bit;
+					noteOffTimes[bit] = due;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send a note off for every note started by the player and not released by a note off sent or still scheduled.
+	 *
+	 * @param due the time to send the note offs at, -1 to send them immediately after the scheduled messages have
+	 *            been cancelled
+	 */
+	private void releaseNotes(long due) {
+		long now = System.nanoTime();
+		for (int i = 0; i < heldNotes.length; i++) {
+			long bits = heldNotes[i];
+			long released = noteOffScheduled[i];
+			while (bits != 0) {
+				int bit = (i << 6) | Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if ((released & (1L << bit)) != 0 && (due != -1 || noteOffTimes[bit] - now <= 0)) {
+					continue;
+				}
+				int status = MidiEvent.NOTE_OFF | (bit >>> 7);
+				if (due == -1) {
+					output.sendValid(status, bit & 0x7F, 0, -1);
+				} else {
+					scheduler.schedule(due, status, bit & 0x7F, 0);
+				}
+			}
+			heldNotes[i] = 0;
+			noteOffScheduled[i] = 0;
+		}
+	}
+}
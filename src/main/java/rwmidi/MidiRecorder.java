@@ -0,0 +1,449 @@
+package rwmidi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the messages received by MidiInputs into an append-only binary log, for captures lasting hours. The log is
+ * split into segment files of a fixed size, which are memory mapped and written directly, so that recording doesn't
+ * allocate nor copy messages on the heap. Read a log using {@link MidiLogReader}.
+ * <p/>
+ * Each record holds the time elapsed since the previous record in microseconds, as a variable length number, followed
+ * by the raw bytes of the message. Sysex messages are stored inline, their length following the 0xF0 byte. Every
+ * second of recording, the position of the next record is added to an index file next to the segment, used by the
+ * reader to seek by time.
+ * <p/>
+ * The disk is only accessed by a background thread: it creates and maps the next segment in advance, writes the
+ * index entries, and syncs and closes the full segments. The thread delivering the messages never waits for the disk,
+ * unless a segment fills up before the next one is ready.
+ */
+public class MidiRecorder implements ShortMessageListener, SysexListener, Closeable {
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	static final int MAGIC = 0x52574D4C;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int INDEX_ENTRY_SIZE = 12;
+	static final String SEGMENT_SUFFIX = ".midilog";
+	static final String INDEX_SUFFIX = ".idx";
+	private static final long INDEX_INTERVAL_MICROS = 1000000L;
+
+	private final File directory;
+	private final String name;
+	private final int segmentSize;
+	private final List<MidiInput> inputs = new ArrayList<MidiInput>();
+	private final long startNanos = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+	private final ExecutorService writer;
+	private ByteBuffer indexBuffer = newIndexBuffer();
+
+	private int segmentIndex = -1;
+	private Segment current;
+	private MappedByteBuffer segment;
+	private Future<Segment> next;
+	private long lastTime = 0;
+	private long nextIndexTime = 0;
+	private long recordCount = 0;
+	private long droppedCount = 0;
+	// set by the writer thread too, which never takes the lock of the recorder
+	private volatile IOException error = null;
+	private boolean closed = false;
+
+	/**
+	 * Create a recorder with the default segment size of 64 MB.
+	 *
+	 * @param directory the directory to write the log into
+	 * @param name      the name of the log, used as prefix of the segment files
+	 * @throws IOException if the first segment can't be created
+	 */
+	public MidiRecorder(File directory, String name) throws IOException {
+		this(directory, name, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Create a recorder.
+	 *
+	 * @param directory   the directory to write the log into
+	 * @param name        the name of the log, used as prefix of the segment files
+	 * @param segmentSize the size of the segment files, in bytes
+	 * @throws IOException if the first segment can't be created
+	 */
+	public MidiRecorder(File directory, String name, int segmentSize) throws IOException {
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("Segment size must be at least 1024, got " + segmentSize);
+		}
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rwmidi recorder " + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			next = writer.submit(new PrepareSegment(0));
+			openSegment();
+		} catch (IOException e) {
+			writer.shutdownNow();
+			throw e;
+		}
+	}
+
+	static File segmentFile(File directory, String name, int index) {
+		return new File(directory, name + "-" + String.format("%05d", index) + SEGMENT_SUFFIX);
+	}
+
+	static File indexFile(File directory, String name, int index) {
+		return new File(directory, name + "-" + String.format("%05d", index) + SEGMENT_SUFFIX + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Record all the messages received by an input, until the recorder is closed.
+	 *
+	 * @param input the input to record
+	 */
+	public synchronized void record(MidiInput input) {
+		if (closed) {
+			throw new IllegalStateException("Recorder is closed");
+		}
+		inputs.add(input);
+		input.addShortMessageListener(this);
+		input.addSysexListener(this);
+	}
+
+	/**
+	 * @return the number of recorded messages
+	 */
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the number of messages that could not be recorded, because they were larger than a segment
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return the number of segment files written so far
+	 */
+	public synchronized int getSegmentCount() {
+		return segmentIndex + 1;
+	}
+
+	public synchronized void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		if (error != null || closed) {
+			return;
+		}
+		int length = PackedMessage.getMessageLength(status);
+		try {
+			long time = startRecord(length);
+			segment.put((byte) status);
+			if (length > 1) {
+				segment.put((byte) data1);
+			}
+			if (length > 2) {
+				segment.put((byte) data2);
+			}
+			lastTime = time;
+			recordCount++;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	public synchronized void onSysex(byte[] data, int length, long timeStamp) {
+		if (error != null || closed) {
+			return;
+		}
+		// 0xF0, length, then the message without the 0xF0 byte
+		int size = 1 + 5 + length - 1;
+		if (size + 10 > segmentSize - HEADER_SIZE) {
+			droppedCount++;
+			return;
+		}
+		try {
+			long time = startRecord(size);
+			segment.put((byte) MidiEvent.SYSEX_START);
+			putVarLong(segment, length - 1);
+			segment.put(data, 1, length - 1);
+			lastTime = time;
+			recordCount++;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Write the time of a record, rotating to a new segment and adding an index entry if needed.
+	 *
+	 * @return the time of the record
+	 */
+	private long startRecord(int size) throws IOException {
+		long time = Math.max((System.nanoTime() - startNanos) / 1000L, lastTime);
+		if (segment.remaining() < size + 10) {
+			closeSegment();
+			openSegment();
+		}
+		if (time >= nextIndexTime) {
+			if (indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+				writer.execute(new WriteIndex(current, indexBuffer));
+				indexBuffer = newIndexBuffer();
+			}
+			indexBuffer.putLong(lastTime).putInt(segment.position());
+			nextIndexTime = time + INDEX_INTERVAL_MICROS;
+		}
+		putVarLong(segment, time - lastTime);
+		return time;
+	}
+
+	private static ByteBuffer newIndexBuffer() {
+		return ByteBuffer.allocate(INDEX_ENTRY_SIZE * 256);
+	}
+
+	/**
+	 * Start writing into the segment prepared by the writer thread, and have it prepare the following one.
+	 */
+	private void openSegment() throws IOException {
+		current = awaitNext();
+		segmentIndex++;
+		segment = current.buffer;
+		segment.putInt(MAGIC).putInt(VERSION).putLong(lastTime).putLong(startMillis);
+		segment.position(HEADER_SIZE);
+		next = writer.submit(new PrepareSegment(segmentIndex + 1));
+		// the first record of a segment is always indexed
+		nextIndexTime = 0;
+	}
+
+	private Segment awaitNext() throws IOException {
+		try {
+			return next.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("Unable to create MIDI log segment", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the next MIDI log segment");
+		}
+	}
+
+	/**
+	 * Hand the current segment and its pending index entries to the writer thread, which syncs and closes it.
+	 */
+	private void closeSegment() {
+		writer.execute(new CloseSegment(current, indexBuffer, segment.position()));
+		indexBuffer = newIndexBuffer();
+		current = null;
+		segment = null;
+	}
+
+	private void fail(IOException e) {
+		e.printStackTrace();
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) (0x80 | (value & 0x7F)));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Stop recording the inputs, and close the log.
+	 *
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		for (MidiInput input : inputs) {
+			input.removeShortMessageListener(this);
+			input.removeSysexListener(this);
+		}
+		inputs.clear();
+		closed = true;
+		if (segment != null) {
+			closeSegment();
+		}
+		writer.execute(new DiscardSegment(next));
+		writer.shutdown();
+		try {
+			while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for the pending segment to be written
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the MIDI log");
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * A segment file with its index file.
+	 */
+	private static final class Segment {
+		final File file;
+		final File indexFile;
+		final RandomAccessFile segmentFile;
+		final RandomAccessFile index;
+		final MappedByteBuffer buffer;
+
+		Segment(File file, File indexFile, RandomAccessFile segmentFile, RandomAccessFile index,
+				MappedByteBuffer buffer) {
+			this.file = file;
+			this.indexFile = indexFile;
+			this.segmentFile = segmentFile;
+			this.index = index;
+			this.buffer = buffer;
+		}
+
+		void writeIndex(ByteBuffer entries) throws IOException {
+			entries.flip();
+			FileChannel channel = index.getChannel();
+			while (entries.hasRemaining()) {
+				channel.write(entries);
+			}
+		}
+
+		void close() throws IOException {
+			try {
+				segmentFile.close();
+			} finally {
+				index.close();
+			}
+		}
+	}
+
+	/**
+	 * Create and map a segment before it is needed. Until its header is written, a segment is all zeros, which the
+	 * reader takes as the end of the log if the recorder didn't get to close it.
+	 */
+	private final class PrepareSegment implements Callable<Segment> {
+		private final int index;
+
+		PrepareSegment(int index) {
+			this.index = index;
+		}
+
+		public Segment call() throws IOException {
+			File file = segmentFile(directory, name, index);
+			File indexFile = indexFile(directory, name, index);
+			RandomAccessFile segmentFile = new RandomAccessFile(file, "rw");
+			RandomAccessFile indexRaf = null;
+			try {
+				segmentFile.setLength(0);
+				MappedByteBuffer buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+				indexRaf = new RandomAccessFile(indexFile, "rw");
+				indexRaf.setLength(0);
+				return new Segment(file, indexFile, segmentFile, indexRaf, buffer);
+			} catch (IOException e) {
+				segmentFile.close();
+				if (indexRaf != null) {
+					indexRaf.close();
+				}
+				throw e;
+			}
+		}
+	}
+
+	private final class WriteIndex implements Runnable {
+		private final Segment segment;
+		private final ByteBuffer entries;
+
+		WriteIndex(Segment segment, ByteBuffer entries) {
+			this.segment = segment;
+			this.entries = entries;
+		}
+
+		public void run() {
+			try {
+				segment.writeIndex(entries);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	private final class CloseSegment implements Runnable {
+		private final Segment segment;
+		private final ByteBuffer entries;
+		private final int length;
+
+		CloseSegment(Segment segment, ByteBuffer entries, int length) {
+			this.segment = segment;
+			this.entries = entries;
+			this.length = length;
+		}
+
+		public void run() {
+			try {
+				try {
+					segment.writeIndex(entries);
+					segment.buffer.force();
+					try {
+						segment.segmentFile.setLength(length);
+					} catch (IOException e) {
+						// some platforms can't truncate a mapped file, the zero filled tail is ignored by the reader
+					}
+				} finally {
+					segment.close();
+				}
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Remove the segment prepared in advance when the recorder is closed.
+	 */
+	private final class DiscardSegment implements Runnable {
+		private final Future<Segment> prepared;
+
+		DiscardSegment(Future<Segment> prepared) {
+			this.prepared = prepared;
+		}
+
+		public void run() {
+			try {
+				// the segment has been prepared by this thread already, this doesn't block
+				Segment segment = prepared.get();
+				segment.close();
+				segment.file.delete();
+				segment.indexFile.delete();
+			} catch (ExecutionException e) {
+				// the segment couldn't be created, which doesn't matter anymore
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+}
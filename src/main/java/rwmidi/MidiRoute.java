@@ -0,0 +1,126 @@
+package rwmidi;
+
+/**
+ * Connection of a {@link MidiRouter} forwarding the messages of a MidiInput to a MidiOutput. The messages forwarded
+ * by a route are selected by a channel mask and a message type mask, which are compiled into a table of 256 bits
+ * indexed by status byte, so that filtering a message costs a single lookup. The filter can be changed at any time,
+ * while messages are being forwarded.
+ */
+public class MidiRoute {
+	public static final int NOTE_OFF = 1;
+	public static final int NOTE_ON = 1 << 1;
+	public static final int POLY_PRESSURE = 1 << 2;
+	public static final int CONTROL_CHANGE = 1 << 3;
+	public static final int PROGRAM_CHANGE = 1 << 4;
+	public static final int CHANNEL_PRESSURE = 1 << 5;
+	public static final int PITCH_BEND = 1 << 6;
+	public static final int SYSEX = 1 << 7;
+	public static final int SYSTEM_COMMON = 1 << 8;
+	public static final int REALTIME = 1 << 9;
+	public static final int CHANNEL_MESSAGES = (1 << 7) - 1;
+	public static final int ALL_TYPES = (1 << 10) - 1;
+	public static final int ALL_CHANNELS = 0xFFFF;
+
+	private final MidiInput input;
+	private final MidiOutput output;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile int channelMask;
+	private volatile int typeMask;
+	private volatile long[] statusMask;
+
+	MidiRoute(MidiInput input, MidiOutput output, int channelMask, int typeMask) {
+		this.input = input;
+		this.output = output;
+		setFilter(channelMask, typeMask);
+	}
+
+	/**
+	 * @return the input whose messages are forwarded
+	 */
+	public MidiInput getInput() {
+		return input;
+	}
+
+	/**
+	 * @return the output the messages are forwarded to
+	 */
+	public MidiOutput getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return the mask of forwarded channels, bit n being set if channel n is forwarded
+	 */
+	public int getChannelMask() {
+		return channelMask;
+	}
+
+	/**
+	 * @return the mask of forwarded message types, a combination of the type constants of MidiRoute
+	 */
+	public int getTypeMask() {
+		return typeMask;
+	}
+
+	/**
+	 * Change the messages forwarded by the route. Channel messages are forwarded if both their type and their
+	 * channel are selected, system messages if their type is selected.
+	 *
+	 * @param channelMask the forwarded channels, bit n being set to forward channel n, {@link #ALL_CHANNELS} for all
+	 * @param typeMask    the forwarded message types, a combination of the type constants, {@link #ALL_TYPES} for all
+	 */
+	public synchronized void setFilter(int channelMask, int typeMask) {
+		long[] mask = new long[4];
+		for (int status = 0x80; status < 0x100; status++) {
+			if (typeMask(status) != 0 && (typeMask & typeMask(status)) != 0
+					&& (status >= 0xF0 || (channelMask & (1 << (status & 0x0F))) != 0)) {
+				mask[status >>> 6] |= 1L << status;
+			}
+		}
+		this.channelMask = channelMask;
+		this.typeMask = typeMask;
+		this.statusMask = mask;
+	}
+
+	private static int typeMask(int status) {
+		if (status < 0xF0) {
+			return 1 << ((status >> 4) - 8);
+		}
+		if (status == MidiEvent.SYSEX_START) {
+			return SYSEX;
+		}
+		if (status >= 0xF8) {
+			return REALTIME;
+		}
+		// 0xF7 is not a message on its own
+		return status == MidiEvent.SYSEX_END ? 0 : SYSTEM_COMMON;
+	}
+
+	/**
+	 * @param status a status byte
+	 * @return true if messages with this status byte are forwarded by the route
+	 */
+	public boolean accepts(int status) {
+		return (statusMask[status >>> 6] & (1L << status)) != 0;
+	}
+
+	/**
+	 * @return the time taken to forward each message to the output, in nanoseconds. The count of the histogram is
+	 * the number of forwarded messages.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	void forward(int status, int data1, int data2) {
+		final long start = System.nanoTime();
+		output.sendValid(status, data1, data2, -1);
+		latency.record(System.nanoTime() - start);
+	}
+
+	void forwardSysex(byte[] message) {
+		final long start = System.nanoTime();
+		output.sendSysex(message);
+		latency.record(System.nanoTime() - start);
+	}
+}
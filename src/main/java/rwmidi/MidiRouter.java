@@ -0,0 +1,140 @@
+package rwmidi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Patchbay forwarding the messages received on MidiInputs to MidiOutputs. Messages are forwarded as raw bytes from
+ * the receive path of the input, without being decoded into MidiEvent objects nor validated again, so that a hop
+ * only costs a filter lookup and the send on the output.
+ * <p/>
+ * Each input with routes has one listener holding the routes of the input in an array, replaced on every change, so
+ * that routes can be connected, disconnected and filtered at runtime without locking the receive path. Get the shared
+ * router using {@link RWMidi#router()}. Routing an input to an output that sends back to the same input, for example
+ * on a loopback, forwards messages endlessly.
+ */
+public class MidiRouter {
+	private final Map<MidiInput, InputRoutes> inputs = new IdentityHashMap<MidiInput, InputRoutes>();
+
+	/**
+	 * Forward all the messages of an input to an output.
+	 *
+	 * @param input  the input to forward
+	 * @param output the output to forward to
+	 * @return the created route
+	 */
+	public MidiRoute connect(MidiInput input, MidiOutput output) {
+		return connect(input, output, MidiRoute.ALL_CHANNELS, MidiRoute.ALL_TYPES);
+	}
+
+	/**
+	 * Forward some of the messages of an input to an output.
+	 *
+	 * @param input       the input to forward
+	 * @param output      the output to forward to
+	 * @param channelMask the forwarded channels, bit n being set to forward channel n
+	 * @param typeMask    the forwarded message types, a combination of the type constants of {@link MidiRoute}
+	 * @return the created route
+	 */
+	public synchronized MidiRoute connect(MidiInput input, MidiOutput output, int channelMask, int typeMask) {
+		MidiRoute route = new MidiRoute(input, output, channelMask, typeMask);
+		InputRoutes routes = inputs.get(input);
+		if (routes == null) {
+			routes = new InputRoutes();
+			inputs.put(input, routes);
+			input.addShortMessageListener(routes);
+			input.addSysexListener(routes);
+		}
+		MidiRoute[] current = routes.routes;
+		MidiRoute[] result = Arrays.copyOf(current, current.length + 1);
+		result[current.length] = route;
+		routes.routes = result;
+		return route;
+	}
+
+	/**
+	 * Remove a route. Messages being forwarded while the route is removed may still be sent on its output.
+	 *
+	 * @param route the route to remove
+	 */
+	public synchronized void disconnect(MidiRoute route) {
+		InputRoutes routes = inputs.get(route.getInput());
+		if (routes == null) {
+			return;
+		}
+		MidiRoute[] current = routes.routes;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == route) {
+				MidiRoute[] result = new MidiRoute[current.length - 1];
+				System.arraycopy(current, 0, result, 0, i);
+				System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+				routes.routes = result;
+				if (result.length == 0) {
+					removeInput(route.getInput(), routes);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the routes.
+	 */
+	public synchronized void disconnectAll() {
+		for (MidiInput input : new ArrayList<MidiInput>(inputs.keySet())) {
+			InputRoutes routes = inputs.get(input);
+			routes.routes = new MidiRoute[0];
+			removeInput(input, routes);
+		}
+	}
+
+	/**
+	 * @return all the routes of the router
+	 */
+	public synchronized List<MidiRoute> getRoutes() {
+		List<MidiRoute> result = new ArrayList<MidiRoute>();
+		for (InputRoutes routes : inputs.values()) {
+			result.addAll(Arrays.asList(routes.routes));
+		}
+		return result;
+	}
+
+	private void removeInput(MidiInput input, InputRoutes routes) {
+		inputs.remove(input);
+		input.removeShortMessageListener(routes);
+		input.removeSysexListener(routes);
+	}
+
+	/**
+	 * Listener registered on an input, forwarding its messages to its routes.
+	 */
+	private static class InputRoutes implements ShortMessageListener, SysexListener {
+		volatile MidiRoute[] routes = new MidiRoute[0];
+
+		public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+			final MidiRoute[] current = routes;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].accepts(status)) {
+					current[i].forward(status, data1, data2);
+				}
+			}
+		}
+
+		public void onSysex(byte[] data, int length, long timeStamp) {
+			final MidiRoute[] current = routes;
+			byte[] message = null;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].accepts(MidiEvent.SYSEX_START)) {
+					if (message == null) {
+						// the listener data is only valid during the call
+						message = Arrays.copyOf(data, length);
+					}
+					current[i].forwardSysex(message);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package rwmidi;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends messages on a {@link MidiOutput} at a given time, instead of sending them immediately. Times are given in the
+ * time base of System.nanoTime(). Scheduled messages are kept in a priority queue ordered by time, and are sent from
+ * a dedicated thread that parks until shortly before the next message is due, and then spins until the exact time.
+ * <p/>
+ * If the output device supports time stamps and device time stamps are enabled, messages are handed to the device
+ * immediately with a time stamp computed from the device microsecond position, and the device takes care of the
+ * timing.
+ * <p/>
+ * The difference between the scheduled and the actual send time of the last messages is recorded, and can be queried
+ * using {@link #getLatenessPercentile(double)}. Get the scheduler of an output using {@link MidiOutput#getScheduler()}.
+ */
+public class MidiScheduler {
+	private static final long IDLE_PARK_NANOS = 10000000L;
+	private static final int LATENESS_SAMPLES = 1024;
+
+	private final MidiOutput output;
+	private volatile Thread thread = null;
+
+	// binary heap ordered by time, then by insertion order
+	private long[] times = new long[64];
+	private long[] sequences = new long[64];
+	private int[] messages = new int[64];
+	private byte[][] sysexMessages = new byte[64][];
+	private int size = 0;
+	private long nextSequence = 0;
+
+	private final long[] latenessSamples = new long[LATENESS_SAMPLES];
+	private long sentCount = 0;
+	private long errorCount = 0;
+	private long maxLateness = 0;
+
+	private volatile long spinThreshold = 100000L;
+	private volatile boolean deviceTimestamps = false;
+	// optional histogram receiving the lateness of every sent message
+	volatile LatencyHistogram latenessHistogram = null;
+
+	MidiScheduler(MidiOutput output) {
+		this.output = output;
+	}
+
+	/**
+	 * Schedule a short message.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param status   status byte of the message, including the channel
+	 * @param data1    first data byte
+	 * @param data2    second data byte
+	 * @return true on success, false if the message is invalid
+	 */
+	public boolean schedule(long nanoTime, int status, int data1, int data2) {
+		if (!PackedMessage.isValid(status, data1, data2)) {
+			return false;
+		}
+		if (deviceTimestamps) {
+			long timeStamp = toDeviceTimestamp(nanoTime);
+			if (timeStamp != -1) {
+				output.sendValid(status, data1, data2, timeStamp);
+				return true;
+			}
+		}
+		add(nanoTime, PackedMessage.pack(status, data1, data2), null);
+		return true;
+	}
+
+	/**
+	 * Schedule a sysex message.
+	 *
+	 * @param nanoTime time at which to send the message, in the time base of System.nanoTime()
+	 * @param msg      bytes of the sysex message, have to contain 0xF0 at the beginning and 0xF7 at the end
+	 * @return true on success, false if the message is invalid
+	 */
+	public boolean scheduleSysex(long nanoTime, byte[] msg) {
+		if (msg == null || msg.length < 2 || (msg[0] & 0xFF) != MidiEvent.SYSEX_START) {
+			return false;
+		}
+		if (deviceTimestamps) {
+			long timeStamp = toDeviceTimestamp(nanoTime);
+			if (timeStamp != -1) {
+				return output.sendSysex(msg, timeStamp);
+			}
+		}
+		add(nanoTime, 0, msg);
+		return true;
+	}
+
+	/**
+	 * Remove all the messages that have not been sent yet.
+	 */
+	public synchronized void cancelAll() {
+		Arrays.fill(sysexMessages, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of messages waiting to be sent
+	 */
+	public synchronized int getPendingCount() {
+		return size;
+	}
+
+	/**
+	 * @return the time before a message is due below which the scheduler thread spins instead of parking, in
+	 * nanoseconds
+	 */
+	public long getSpinThreshold() {
+		return spinThreshold;
+	}
+
+	/**
+	 * Set the time before a message is due below which the scheduler thread spins instead of parking. Higher values
+	 * give better timing at the cost of CPU time. The default is 100 microseconds.
+	 *
+	 * @param nanos the spin threshold in nanoseconds
+	 */
+	public void setSpinThreshold(long nanos) {
+		spinThreshold = Math.max(0, nanos);
+	}
+
+	/**
+	 * @return true if messages are handed to devices supporting time stamps immediately
+	 */
+	public boolean isDeviceTimestamps() {
+		return deviceTimestamps;
+	}
+
+	/**
+	 * Hand messages to the device immediately, with a time stamp based on the device microsecond position, if the
+	 * device supports time stamps. Only enable this for devices that actually honour the time stamps of the messages
+	 * they receive, many Java Sound drivers ignore them. Disabled by default.
+	 *
+	 * @param deviceTimestamps true to use device time stamps
+	 */
+	public void setDeviceTimestamps(boolean deviceTimestamps) {
+		this.deviceTimestamps = deviceTimestamps;
+	}
+
+	/**
+	 * @return the number of messages sent by the scheduler thread
+	 */
+	public synchronized long getSentCount() {
+		return sentCount;
+	}
+
+	/**
+	 * @return the number of scheduled messages the output failed to send
+	 */
+	public synchronized long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return the largest difference between the scheduled and the actual send time, in nanoseconds
+	 */
+	public synchronized long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * Return a percentile of the difference between the scheduled and the actual send time of the last 1024 messages
+	 * sent by the scheduler thread.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the lateness in nanoseconds, 0 if no message has been sent yet
+	 */
+	public long getLatenessPercentile(double percentile) {
+		long[] samples;
+		synchronized (this) {
+			int count = (int) Math.min(sentCount, LATENESS_SAMPLES);
+			if (count == 0) {
+				return 0;
+			}
+			samples = Arrays.copyOf(latenessSamples, count);
+		}
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * samples.length) - 1;
+		return samples[Math.max(index, 0)];
+	}
+
+	/**
+	 * Stop the scheduler thread. Messages that have not been sent yet are discarded.
+	 */
+	public void stop() {
+		Thread stopped;
+		synchronized (this) {
+			stopped = thread;
+			thread = null;
+			cancelAll();
+		}
+		if (stopped != null) {
+			LockSupport.unpark(stopped);
+		}
+	}
+
+	private long toDeviceTimestamp(long nanoTime) {
+		long position = output.getMicrosecondPosition();
+		if (position == -1) {
+			return -1;
+		}
+		return position + Math.max(0, nanoTime - System.nanoTime()) / 1000;
+	}
+
+	private void add(long nanoTime, int message, byte[] sysex) {
+		boolean first;
+		Thread dispatcher;
+		synchronized (this) {
+			if (size == times.length) {
+				int capacity = size * 2;
+				times = Arrays.copyOf(times, capacity);
+				sequences = Arrays.copyOf(sequences, capacity);
+				messages = Arrays.copyOf(messages, capacity);
+				sysexMessages = Arrays.copyOf(sysexMessages, capacity);
+			}
+			int i = size++;
+			long sequence = nextSequence++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(nanoTime, sequence, parent)) {
+					break;
+				}
+				move(parent, i);
+				i = parent;
+			}
+			set(i, nanoTime, sequence, message, sysex);
+			first = i == 0;
+			dispatcher = thread;
+			if (dispatcher == null) {
+				dispatcher = new Thread(new Runnable() {
+					public void run() {
+						dispatchLoop();
+					}
+				}, "rwmidi scheduler " + output.getName());
+				dispatcher.setDaemon(true);
+				thread = dispatcher;
+				dispatcher.start();
+			}
+		}
+		if (first) {
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	private void dispatchLoop() {
+		try {
+			while (thread == Thread.currentThread()) {
+				final boolean empty;
+				final long due;
+				synchronized (this) {
+					empty = size == 0;
+					due = empty ? 0 : times[0];
+				}
+				if (empty) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					continue;
+				}
+				long remaining = due - System.nanoTime();
+				if (remaining > spinThreshold) {
+					LockSupport.parkNanos(this, remaining - spinThreshold);
+					continue;
+				}
+				if (remaining > 0) {
+					continue;
+				}
+				sendDue();
+			}
+		} finally {
+			// if the thread dies, the next scheduled message starts a new one
+			synchronized (this) {
+				if (thread == Thread.currentThread()) {
+					thread = null;
+				}
+			}
+		}
+	}
+
+	private void sendDue() {
+		final long now = System.nanoTime();
+		while (true) {
+			long due;
+			int message;
+			byte[] sysex;
+			synchronized (this) {
+				if (size == 0 || times[0] - now > 0) {
+					return;
+				}
+				due = times[0];
+				message = messages[0];
+				sysex = sysexMessages[0];
+				removeFirst();
+			}
+			try {
+				if (sysex != null) {
+					output.sendSysex(sysex);
+				} else {
+					output.sendValid(PackedMessage.getStatus(message), PackedMessage.getData1(message),
+							PackedMessage.getData2(message), -1);
+				}
+			} catch (RuntimeException e) {
+				// keep sending the other messages
+				synchronized (this) {
+					errorCount++;
+				}
+				e.printStackTrace();
+				continue;
+			}
+			long lateness = System.nanoTime() - due;
+			LatencyHistogram histogram = latenessHistogram;
+			if (histogram != null) {
+				histogram.record(lateness);
+			}
+			synchronized (this) {
+				latenessSamples[(int) (sentCount % LATENESS_SAMPLES)] = lateness;
+				sentCount++;
+				maxLateness = Math.max(maxLateness, lateness);
+			}
+		}
+	}
+
+	private void removeFirst() {
+		int last = --size;
+		long time = times[last];
+		long sequence = sequences[last];
+		int message = messages[last];
+		byte[] sysex = sysexMessages[last];
+		sysexMessages[last] = null;
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(times[child + 1], sequences[child + 1], child)) {
+				child++;
+			}
+			if (!before(times[child], sequences[child], time, sequence)) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		if (size > 0) {
+			set(i, time, sequence, message, sysex);
+		}
+	}
+
+	private boolean before(long time, long sequence, int index) {
+		return before(time, sequence, times[index], sequences[index]);
+	}
+
+	private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+		long diff = time - otherTime;
+		return diff < 0 || (diff == 0 && sequence < otherSequence);
+	}
+
+	private void move(int from, int to) {
+		set(to, times[from], sequences[from], messages[from], sysexMessages[from]);
+	}
+
+	private void set(int index, long time, long sequence, int message, byte[] sysex) {
+		times[index] = time;
+		sequences[index] = sequence;
+		messages[index] = message;
+		sysexMessages[index] = sysex;
+	}
+}
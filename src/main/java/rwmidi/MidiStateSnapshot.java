@@ -0,0 +1,157 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Copy of the state of the 16 MIDI channels taken by {@link MidiStateTracker#snapshot(MidiStateSnapshot)}: held
+ * notes with their velocity, controller values, programs, pitch bend and channel pressure. The values are stored in
+ * flat arrays indexed by channel and number, and a snapshot can be reused for the following snapshots to avoid
+ * allocating.
+ */
+public class MidiStateSnapshot {
+	public static final int PITCH_BEND_CENTER = 8192;
+
+	final byte[] velocities = new byte[16 * 128];
+	// one bit per held note, two longs per channel
+	final long[] heldNotes = new long[16 * 2];
+	final byte[] controllers = new byte[16 * 128];
+	final byte[] programs = new byte[16];
+	final short[] pitchBends = new short[16];
+	final byte[] channelPressures = new byte[16];
+
+	public MidiStateSnapshot() {
+		reset();
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param note    the note number
+	 * @return true if the note is held on the channel
+	 */
+	public boolean isNoteOn(int channel, int note) {
+		return velocities[(channel << 7) | note] != 0;
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param note    the note number
+	 * @return the velocity the note has been started with, 0 if the note is not held
+	 */
+	public int getVelocity(int channel, int note) {
+		return velocities[(channel << 7) | note];
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the number of notes held on the channel
+	 */
+	public int getHeldNoteCount(int channel) {
+		return Long.bitCount(heldNotes[channel << 1]) + Long.bitCount(heldNotes[(channel << 1) + 1]);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param cc      the controller number
+	 * @return the last value of the controller on the channel, -1 if it has not been received
+	 */
+	public int getController(int channel, int cc) {
+		return controllers[(channel << 7) | cc];
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the last program selected on the channel, -1 if no program change has been received
+	 */
+	public int getProgram(int channel) {
+		return programs[channel];
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the pitch bend of the channel, from 0 to 16383, 8192 being the center
+	 */
+	public int getPitchBend(int channel) {
+		return pitchBends[channel];
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the channel pressure of the channel
+	 */
+	public int getChannelPressure(int channel) {
+		return channelPressures[channel];
+	}
+
+	void copyFrom(MidiStateSnapshot other) {
+		System.arraycopy(other.velocities, 0, velocities, 0, velocities.length);
+		System.arraycopy(other.heldNotes, 0, heldNotes, 0, heldNotes.length);
+		System.arraycopy(other.controllers, 0, controllers, 0, controllers.length);
+		System.arraycopy(other.programs, 0, programs, 0, programs.length);
+		System.arraycopy(other.pitchBends, 0, pitchBends, 0, pitchBends.length);
+		System.arraycopy(other.channelPressures, 0, channelPressures, 0, channelPressures.length);
+	}
+
+	void reset() {
+		Arrays.fill(velocities, (byte) 0);
+		Arrays.fill(heldNotes, 0);
+		Arrays.fill(controllers, (byte) -1);
+		Arrays.fill(programs, (byte) -1);
+		Arrays.fill(pitchBends, (short) PITCH_BEND_CENTER);
+		Arrays.fill(channelPressures, (byte) 0);
+	}
+
+	void noteOn(int channel, int note, int velocity) {
+		velocities[(channel << 7) | note] = (byte) velocity;
+		heldNotes[(channel << 1) | (note >>> 6)] |= 1L << note;
+	}
+
+	void noteOff(int channel, int note) {
+		velocities[(channel << 7) | note] = 0;
+		heldNotes[(channel << 1) | (note >>> 6)] &= ~(1L << note);
+	}
+
+	void releaseChannel(int channel) {
+		Arrays.fill(velocities, channel << 7, (channel + 1) << 7, (byte) 0);
+		heldNotes[channel << 1] = 0;
+		heldNotes[(channel << 1) + 1] = 0;
+	}
+
+	void update(int status, int data1, int data2) {
+		int channel = status & 0x0F;
+		switch (status & 0xF0) {
+			case MidiEvent.NOTE_ON:
+				if (data2 > 0) {
+					noteOn(channel, data1, data2);
+				} else {
+					// note on with velocity 0 is a note off
+					noteOff(channel, data1);
+				}
+				break;
+			case MidiEvent.NOTE_OFF:
+				noteOff(channel, data1);
+				break;
+			case MidiEvent.CONTROL_CHANGE:
+				controllers[(channel << 7) | data1] = (byte) data2;
+				if (data1 == 120 || data1 == 123) {
+					// all sound off, all notes off
+					releaseChannel(channel);
+				} else if (data1 == 121) {
+					// reset all controllers
+					pitchBends[channel] = PITCH_BEND_CENTER;
+					channelPressures[channel] = 0;
+				}
+				break;
+			case MidiEvent.PROGRAM_CHANGE:
+				programs[channel] = (byte) data1;
+				break;
+			case 0xD0:
+				channelPressures[channel] = (byte) data1;
+				break;
+			case 0xE0:
+				pitchBends[channel] = (short) (data1 | (data2 << 7));
+				break;
+			default:
+				break;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package rwmidi;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Tracks the state of the 16 MIDI channels from the messages received on MidiInputs or sent on MidiOutputs: held
+ * notes with their velocity, controller values, programs, pitch bend and channel pressure. The state is stored in
+ * flat primitive arrays indexed by channel and number, so that queries are a single array read, without locking nor
+ * allocating.
+ * <p/>
+ * Updates are serialized by a StampedLock used as a sequence lock. {@link #snapshot(MidiStateSnapshot)} copies the
+ * arrays optimistically and retries if an update happened during the copy, so that a snapshot is always consistent
+ * and never blocks the MIDI thread.
+ */
+public class MidiStateTracker implements ShortMessageListener {
+	private static final int NOTE_ON = 0;
+	private static final int VELOCITY = 1;
+	private static final int HELD_NOTE_COUNT = 2;
+	private static final int CONTROLLER = 3;
+	private static final int PROGRAM = 4;
+	private static final int PITCH_BEND = 5;
+	private static final int CHANNEL_PRESSURE = 6;
+
+	private final StampedLock lock = new StampedLock();
+	private final MidiStateSnapshot state = new MidiStateSnapshot();
+
+	/**
+	 * Track the messages received on an input.
+	 *
+	 * @param input the input to track
+	 */
+	public void track(MidiInput input) {
+		input.addShortMessageListener(this);
+	}
+
+	/**
+	 * Track the messages sent on an output.
+	 *
+	 * @param output the output to track
+	 */
+	public void track(MidiOutput output) {
+		output.addShortMessageListener(this);
+	}
+
+	/**
+	 * Stop tracking an input.
+	 *
+	 * @param input the input to stop tracking
+	 */
+	public void untrack(MidiInput input) {
+		input.removeShortMessageListener(this);
+	}
+
+	/**
+	 * Stop tracking an output.
+	 *
+	 * @param output the output to stop tracking
+	 */
+	public void untrack(MidiOutput output) {
+		output.removeShortMessageListener(this);
+	}
+
+	public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		if (status >= 0xF0) {
+			return;
+		}
+		long stamp = lock.writeLock();
+		try {
+			state.update(status, data1, data2);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param note    the note number
+	 * @return true if the note is held on the channel
+	 */
+	public boolean isNoteOn(int channel, int note) {
+		return read(NOTE_ON, channel, note) != 0;
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param note    the note number
+	 * @return the velocity the note has been started with, 0 if the note is not held
+	 */
+	public int getVelocity(int channel, int note) {
+		return read(VELOCITY, channel, note);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the number of notes held on the channel
+	 */
+	public int getHeldNoteCount(int channel) {
+		return read(HELD_NOTE_COUNT, channel, 0);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @param cc      the controller number
+	 * @return the last value of the controller on the channel, -1 if it has not been received
+	 */
+	public int getController(int channel, int cc) {
+		return read(CONTROLLER, channel, cc);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the last program selected on the channel, -1 if no program change has been received
+	 */
+	public int getProgram(int channel) {
+		return read(PROGRAM, channel, 0);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the pitch bend of the channel, from 0 to 16383, 8192 being the center
+	 */
+	public int getPitchBend(int channel) {
+		return read(PITCH_BEND, channel, 0);
+	}
+
+	/**
+	 * @param channel the channel, 0 to 15
+	 * @return the channel pressure of the channel
+	 */
+	public int getChannelPressure(int channel) {
+		return read(CHANNEL_PRESSURE, channel, 0);
+	}
+
+	/**
+	 * Read a value optimistically, falling back to the read lock if an update happened meanwhile.
+	 */
+	private int read(int query, int channel, int number) {
+		long stamp = lock.tryOptimisticRead();
+		int value = query(query, channel, number);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				value = query(query, channel, number);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return value;
+	}
+
+	private int query(int query, int channel, int number) {
+		switch (query) {
+			case NOTE_ON:
+				return state.isNoteOn(channel, number) ? 1 : 0;
+			case VELOCITY:
+				return state.getVelocity(channel, number);
+			case HELD_NOTE_COUNT:
+				return state.getHeldNoteCount(channel);
+			case CONTROLLER:
+				return state.getController(channel, number);
+			case PROGRAM:
+				return state.getProgram(channel);
+			case PITCH_BEND:
+				return state.getPitchBend(channel);
+			default:
+				return state.getChannelPressure(channel);
+		}
+	}
+
+	/**
+	 * Take a consistent copy of the state.
+	 *
+	 * @param into the snapshot to copy into, or null to allocate a new one
+	 * @return the snapshot
+	 */
+	public MidiStateSnapshot snapshot(MidiStateSnapshot into) {
+		MidiStateSnapshot result = (into != null) ? into : new MidiStateSnapshot();
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			result.copyFrom(state);
+			if (lock.validate(stamp)) {
+				return result;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			result.copyFrom(state);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return result;
+	}
+
+	/**
+	 * Send a note off for every held note on an output, and mark them as released. Only the channels with held
+	 * notes are visited, using the bitmap of held notes of each channel.
+	 *
+	 * @param output the output to send the note offs on
+	 * @return the number of released notes
+	 */
+	public int releaseAll(MidiOutput output) {
+		long[] held = new long[state.heldNotes.length];
+		long stamp = lock.writeLock();
+		try {
+			System.arraycopy(state.heldNotes, 0, held, 0, held.length);
+			for (int channel = 0; channel < 16; channel++) {
+				if ((held[channel << 1] | held[(channel << 1) + 1]) != 0) {
+					state.releaseChannel(channel);
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		// sent outside of the lock, as the output may be tracked too
+		int count = 0;
+		for (int i = 0; i < held.length; i++) {
+			long bits = held[i];
+			while (bits != 0) {
+				int note = ((i & 1) << 6) | Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				output.sendValid(MidiEvent.NOTE_OFF | (i >>> 1), note, 0, -1);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Forget all the state, as after a system reset.
+	 */
+	public void reset() {
+		long stamp = lock.writeLock();
+		try {
+			state.reset();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package rwmidi;
+
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * Encoder writing MIDI messages as a raw byte stream into a ByteBuffer, omitting repeated status bytes of channel
+ * messages (running status). The encoder can be used directly, or as a Receiver, or registered as a listener on a
+ * {@link MidiInput} to capture its traffic, for example the input of a {@link MidiLoopback} that a
+ * {@link MidiOutput} writes to.
+ * <p/>
+ * When a message doesn't fit into the remaining space of the buffer, nothing is written, and the message is counted
+ * as an overflow. The encoder doesn't allocate, and is not thread safe.
+ */
+public class MidiStreamEncoder implements Receiver, ShortMessageListener, SysexListener {
+	private ByteBuffer buffer;
+	private boolean runningStatusEnabled = true;
+	private int runningStatus = 0;
+	private long overflowCount = 0;
+
+	/**
+	 * Create an encoder writing into a buffer.
+	 *
+	 * @param buffer the buffer to write to
+	 */
+	public MidiStreamEncoder(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the buffer the encoder writes to
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Write into another buffer. The running status is reset, so the first message written into the new buffer
+	 * starts with its status byte.
+	 *
+	 * @param buffer the buffer to write to
+	 */
+	public void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		runningStatus = 0;
+	}
+
+	/**
+	 * Enable or disable running status. Enabled by default.
+	 *
+	 * @param enabled true to omit repeated status bytes
+	 */
+	public void setRunningStatus(boolean enabled) {
+		runningStatusEnabled = enabled;
+		runningStatus = 0;
+	}
+
+	/**
+	 * Make the next channel message start with its status byte, for example before the buffer is sent to a receiver
+	 * that may have missed the previous one.
+	 */
+	public void resetRunningStatus() {
+		runningStatus = 0;
+	}
+
+	/**
+	 * @return the number of messages that didn't fit into the buffer
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * Write a short message.
+	 *
+	 * @param status status byte of the message, including the channel
+	 * @param data1  first data byte
+	 * @param data2  second data byte
+	 * @return true if the message has been written, false if it is invalid or doesn't fit into the buffer
+	 */
+	public boolean encode(int status, int data1, int data2) {
+		if (!PackedMessage.isValid(status, data1, data2)) {
+			return false;
+		}
+		final int length = PackedMessage.getMessageLength(status);
+		final boolean skipStatus = runningStatusEnabled && status < 0xF0 && status == runningStatus;
+		if (buffer.remaining() < (skipStatus ? length - 1 : length)) {
+			overflowCount++;
+			return false;
+		}
+		if (!skipStatus) {
+			buffer.put((byte) status);
+		}
+		if (length > 1) {
+			buffer.put((byte) data1);
+		}
+		if (length > 2) {
+			buffer.put((byte) data2);
+		}
+		if (status < 0xF0) {
+			runningStatus = status;
+		} else if (status < 0xF8) {
+			// system common messages cancel running status, realtime messages don't
+			runningStatus = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Write a sysex message.
+	 *
+	 * @param data   array containing the message, starting with 0xF0 and ending with 0xF7
+	 * @param offset index of the first byte of the message
+	 * @param length length of the message
+	 * @return true if the message has been written, false if it doesn't fit into the buffer
+	 */
+	public boolean encodeSysex(byte[] data, int offset, int length) {
+		if (buffer.remaining() < length) {
+			overflowCount++;
+			return false;
+		}
+		buffer.put(data, offset, length);
+		runningStatus = 0;
+		return true;
+	}
+
+	public void send(MidiMessage message, long timeStamp) {
+		if (message instanceof javax.sound.midi.SysexMessage) {
+			byte[] data = message.getMessage();
+			encodeSysex(data, 0, message.getLength());
+		} else if (message instanceof javax.sound.midi.ShortMessage) {
+			javax.sound.midi.ShortMessage shortMessage = (javax.sound.midi.ShortMessage) message;
+			encode(shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2());
+		}
+	}
+
+	public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		encode(status, data1, data2);
+	}
+
+	public void onSysex(byte[] data, int length, long timeStamp) {
+		encodeSysex(data, 0, length);
+	}
+
+	public void close() {
+	}
+}
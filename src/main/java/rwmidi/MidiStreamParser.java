@@ -0,0 +1,191 @@
+package rwmidi;
+
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Parser for raw MIDI byte streams, such as serial captures, network transports or logs. The parser keeps its state
+ * between calls, so the stream can be fed in buffers of any size, split anywhere. It handles running status, system
+ * realtime bytes (0xF8 - 0xFF) interleaved anywhere in the stream, including inside sysex messages, and sysex
+ * messages of any length up to the maximum sysex size. The undefined system common status bytes 0xF4 and 0xF5 are
+ * discarded, with the data bytes following them.
+ * <p/>
+ * Parsed messages are either passed as javax.sound.midi messages to a Receiver (for example a {@link MidiInput}, so
+ * that they are delivered to its plugs), or as raw bytes to a {@link ShortMessageListener} and a
+ * {@link SysexListener}, in which case the parser doesn't allocate. A parser is not thread safe.
+ */
+public class MidiStreamParser {
+	private final Receiver receiver;
+	private final ShortMessageListener shortMessageListener;
+	private final SysexListener sysexListener;
+	private final SysexBuffer sysexBuffer = new SysexBuffer();
+
+	private int status = 0;
+	private int expectedData = 0;
+	private int dataCount = 0;
+	private int data1 = 0;
+	private boolean inSysex = false;
+
+	/**
+	 * Create a parser passing the parsed messages to a receiver.
+	 *
+	 * @param receiver the receiver of the parsed messages, for example a MidiInput
+	 */
+	public MidiStreamParser(Receiver receiver) {
+		this(receiver, null, null);
+	}
+
+	/**
+	 * Create a parser passing the parsed messages to listeners as raw bytes.
+	 *
+	 * @param shortMessageListener the listener for short messages, can be null
+	 * @param sysexListener        the listener for sysex messages, can be null
+	 */
+	public MidiStreamParser(ShortMessageListener shortMessageListener, SysexListener sysexListener) {
+		this(null, shortMessageListener, sysexListener);
+	}
+
+	private MidiStreamParser(Receiver receiver, ShortMessageListener shortMessageListener,
+			SysexListener sysexListener) {
+		this.receiver = receiver;
+		this.shortMessageListener = shortMessageListener;
+		this.sysexListener = sysexListener;
+	}
+
+	/**
+	 * Set the maximum size of a parsed sysex message, including the 0xF0 and 0xF7 bytes. Larger messages are
+	 * discarded. The default is 1 MB.
+	 *
+	 * @param maxSize the maximum size in bytes
+	 */
+	public void setMaxSysexSize(int maxSize) {
+		sysexBuffer.setMaxSize(maxSize);
+	}
+
+	/**
+	 * Parse bytes from an array.
+	 *
+	 * @param data      the array containing the bytes
+	 * @param offset    the index of the first byte to parse
+	 * @param length    the number of bytes to parse
+	 * @param timeStamp the time stamp given to the messages completed by these bytes, -1 if unknown
+	 */
+	public void parse(byte[] data, int offset, int length, long timeStamp) {
+		for (int i = offset; i < offset + length; i++) {
+			parse(data[i], timeStamp);
+		}
+	}
+
+	/**
+	 * Parse the remaining bytes of a buffer. The position of the buffer is moved to its limit.
+	 *
+	 * @param buffer    the buffer containing the bytes
+	 * @param timeStamp the time stamp given to the messages completed by these bytes, -1 if unknown
+	 */
+	public void parse(ByteBuffer buffer, long timeStamp) {
+		while (buffer.hasRemaining()) {
+			parse(buffer.get(), timeStamp);
+		}
+	}
+
+	/**
+	 * Parse a single byte.
+	 *
+	 * @param b         the byte
+	 * @param timeStamp the time stamp given to the message completed by this byte, -1 if unknown
+	 */
+	public void parse(byte b, long timeStamp) {
+		final int value = b & 0xFF;
+		if (value >= 0xF8) {
+			// realtime messages can appear anywhere and don't change the state
+			emitShort(value, 0, 0, timeStamp);
+		} else if (value == MidiEvent.SYSEX_START) {
+			status = 0;
+			inSysex = true;
+			sysexBuffer.start();
+		} else if (value == MidiEvent.SYSEX_END) {
+			status = 0;
+			if (inSysex) {
+				inSysex = false;
+				if (sysexBuffer.finish()) {
+					emitSysex(timeStamp);
+				}
+			}
+		} else if (value >= 0x80) {
+			if (inSysex) {
+				// a status byte terminates an unfinished sysex message, which is discarded
+				inSysex = false;
+				sysexBuffer.reset();
+			}
+			final int length = PackedMessage.getMessageLength(value);
+			if (length == 0) {
+				// undefined system common message (0xF4, 0xF5), discarded with the data bytes following it
+				status = 0;
+				return;
+			}
+			status = value;
+			dataCount = 0;
+			expectedData = length - 1;
+			if (expectedData == 0) {
+				// tune request
+				emitShort(value, 0, 0, timeStamp);
+				status = 0;
+			}
+		} else if (inSysex) {
+			sysexBuffer.append(b);
+		} else if (status != 0) {
+			if (dataCount == 0) {
+				data1 = value;
+			}
+			dataCount++;
+			if (dataCount == expectedData) {
+				emitShort(status, data1, expectedData == 2 ? value : 0, timeStamp);
+				dataCount = 0;
+				if (status >= 0xF0) {
+					// system common messages cancel running status
+					status = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget the running status and any partial message.
+	 */
+	public void reset() {
+		status = 0;
+		dataCount = 0;
+		inSysex = false;
+		sysexBuffer.reset();
+	}
+
+	private void emitShort(int status, int data1, int data2, long timeStamp) {
+		if (shortMessageListener != null) {
+			shortMessageListener.onShortMessage(status, data1, data2, timeStamp);
+		}
+		if (receiver != null) {
+			try {
+				receiver.send(new ShortMessage(status, data1, data2), timeStamp);
+			} catch (InvalidMidiDataException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void emitSysex(long timeStamp) {
+		if (sysexListener != null) {
+			sysexListener.onSysex(sysexBuffer.getBuffer(), sysexBuffer.getLength(), timeStamp);
+		}
+		if (receiver != null) {
+			try {
+				receiver.send(new javax.sound.midi.SysexMessage(sysexBuffer.toByteArray(), sysexBuffer.getLength()),
+						timeStamp);
+			} catch (InvalidMidiDataException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Converts between ticks and microseconds for a sequence whose tempo changes over time. The map is a list of tempo
+ * changes ordered by tick, each storing the time at which it happens, so that conversions are a binary search
+ * followed by a multiplication.
+ */
+public class MidiTempoMap {
+	private final int division;
+	private long[] ticks = new long[8];
+	private long[] micros = new long[8];
+	private int[] tempos = new int[8];
+	private int size = 1;
+
+	/**
+	 * Create a map with the default tempo of 120 BPM at tick 0.
+	 *
+	 * @param division the number of ticks per quarter note
+	 */
+	public MidiTempoMap(int division) {
+		if (division <= 0) {
+			throw new IllegalArgumentException("Division must be positive, got " + division);
+		}
+		this.division = division;
+		tempos[0] = SmfReader.DEFAULT_TEMPO;
+	}
+
+	/**
+	 * Read the tempo events of a Standard MIDI File, whose division must be in ticks per quarter note.
+	 *
+	 * @param reader the file to read
+	 * @return the tempo map of the file
+	 */
+	public static MidiTempoMap read(SmfReader reader) {
+		if (reader.isSmpte()) {
+			throw new IllegalArgumentException("SMPTE time division has no tempo map");
+		}
+		MidiTempoMap map = new MidiTempoMap(reader.getDivision());
+		SmfCursor cursor = reader.merged();
+		while (cursor.next()) {
+			int tempo = cursor.getTempo();
+			if (tempo > 0) {
+				map.addTempo(cursor.getTick(), tempo);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * @return the number of ticks per quarter note
+	 */
+	public int getDivision() {
+		return division;
+	}
+
+	/**
+	 * Change the tempo from a tick on. Tempo changes must be added in tick order, a change at the same tick as the
+	 * previous one replaces it.
+	 *
+	 * @param tick  the tick of the change
+	 * @param tempo the new tempo, in microseconds per quarter note
+	 */
+	public void addTempo(long tick, int tempo) {
+		if (tempo <= 0) {
+			throw new IllegalArgumentException("Tempo must be positive, got " + tempo);
+		}
+		int last = size - 1;
+		if (tick < ticks[last]) {
+			throw new IllegalArgumentException("Tempo changes must be added in tick order");
+		}
+		if (tick == ticks[last]) {
+			tempos[last] = tempo;
+			return;
+		}
+		if (size == ticks.length) {
+			ticks = Arrays.copyOf(ticks, size * 2);
+			micros = Arrays.copyOf(micros, size * 2);
+			tempos = Arrays.copyOf(tempos, size * 2);
+		}
+		micros[size] = toMicros(tick);
+		ticks[size] = tick;
+		tempos[size] = tempo;
+		size++;
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the tempo at the tick, in microseconds per quarter note
+	 */
+	public int getTempoAt(long tick) {
+		return tempos[indexOfTick(tick)];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the time of the tick, in microseconds
+	 */
+	public long toMicros(long tick) {
+		int i = indexOfTick(tick);
+		return micros[i] + (tick - ticks[i]) * tempos[i] / division;
+	}
+
+	/**
+	 * @param time a time in microseconds
+	 * @return the last tick at or before the time
+	 */
+	public long toTick(long time) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (micros[mid] <= time) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return ticks[low] + (time - micros[low]) * division / tempos[low];
+	}
+
+	private int indexOfTick(long tick) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (ticks[mid] <= tick) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,19 @@
+package rwmidi;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Listener receiving every message arriving on a {@link MidiInput} before it is processed, to debug MIDI traffic at
+ * the wire level. Tracing is disabled by default and costs a single field check per message when no listener is set.
+ * See {@link MidiInput#setTraceListener(MidiTraceListener)} and {@link PrintStreamTraceListener}.
+ */
+public interface MidiTraceListener {
+	/**
+	 * Called for every message received on the input, on the thread delivering the MIDI data.
+	 *
+	 * @param input     the input receiving the message
+	 * @param message   the message as received from the device
+	 * @param timeStamp the time stamp of the message in microseconds, -1 if not supported
+	 */
+	void messageReceived(MidiInput input, MidiMessage message, long timeStamp);
+}
@@ -0,0 +1,394 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Decodes MIDI Polyphonic Expression (MPE) from a MidiInput. The engine keeps the zone configuration, set by the MPE
+ * Configuration Message (RPN 6) received on the manager channels or by {@link #setZones(int, int)}, and the pitch
+ * bend ranges set by RPN 0, using a {@link ParameterDecoder}. For every member channel it tracks the note being
+ * played, its per-note pitch bend, pressure and timbre (controller 74), combined with the pitch bend of the zone
+ * manager channel.
+ * <p/>
+ * The state is kept in flat arrays indexed by channel. Expression changes are delivered to {@link MpeListener}s
+ * immediately by default. With coalescing enabled, they only mark the channel as changed, and {@link #flush()}
+ * delivers one update per changed note with its latest values, so that a sketch calling flush() from its drawing
+ * loop receives at most one update per note and frame however dense the controller stream is.
+ * <p/>
+ * The listeners are always called outside of the lock of the engine, with a copy of the values, so a listener may
+ * query the engine or block without holding up the threads updating it. Deliveries are serialized, so the listeners
+ * are never called concurrently by the same engine.
+ */
+public class MpeEngine implements ShortMessageListener, ParameterListener {
+	public static final float DEFAULT_MEMBER_BEND_RANGE = 48f;
+	public static final float DEFAULT_MANAGER_BEND_RANGE = 2f;
+	private static final int TIMBRE_CC = 74;
+	private static final int RPN_PITCH_BEND_RANGE = 0;
+	private static final int RPN_MPE_CONFIGURATION = 6;
+
+	private final MidiInput input;
+	private final ParameterDecoder decoder = new ParameterDecoder();
+	private volatile MpeListener[] listeners = new MpeListener[0];
+	private boolean coalescing = false;
+
+	private int lowerMembers = 15;
+	private int upperMembers = 0;
+	// manager channel of each channel, -1 for channels outside of the zones
+	private final int[] managers = new int[16];
+	private final float[] bendRanges = new float[16];
+
+	private final int[] notes = new int[16];
+	private final int[] pitchBends = new int[16];
+	private final int[] pressures = new int[16];
+	private final int[] timbres = new int[16];
+	// channels changed since the last flush when coalescing, by the current message otherwise
+	private int dirtyChannels = 0;
+	private int changedChannels = 0;
+
+	// copies used to call the listeners outside of the lock, guarded by the delivery lock
+	private final Object deliveryLock = new Object();
+	private final int[] deliveryNotes = new int[16];
+	private final float[] deliveryPitches = new float[16];
+	private final float[] deliveryPressures = new float[16];
+	private final float[] deliveryTimbres = new float[16];
+
+	/**
+	 * Create an engine decoding the messages of an input.
+	 *
+	 * @param input the input to decode
+	 */
+	public MpeEngine(MidiInput input) {
+		this.input = input;
+		Arrays.fill(notes, -1);
+		Arrays.fill(pitchBends, MidiStateSnapshot.PITCH_BEND_CENTER);
+		Arrays.fill(timbres, 64);
+		decoder.addParameterListener(this);
+		setZones(15, 0);
+		if (input != null) {
+			input.addShortMessageListener(this);
+		}
+	}
+
+	/**
+	 * Create an engine fed by calling {@link #onShortMessage(int, int, int, long)}.
+	 */
+	public MpeEngine() {
+		this(null);
+	}
+
+	/**
+	 * Stop decoding the messages of the input.
+	 */
+	public void close() {
+		if (input != null) {
+			input.removeShortMessageListener(this);
+		}
+	}
+
+	/**
+	 * Register a listener receiving the notes and their expression.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void addMpeListener(final MpeListener listener) {
+		if (listener == null) {
+			return;
+		}
+		MpeListener[] current = listeners;
+		MpeListener[] result = Arrays.copyOf(current, current.length + 1);
+		result[current.length] = listener;
+		listeners = result;
+	}
+
+	/**
+	 * Remove a listener added with {@link #addMpeListener(MpeListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void removeMpeListener(final MpeListener listener) {
+		MpeListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				MpeListener[] result = new MpeListener[current.length - 1];
+				System.arraycopy(current, 0, result, 0, i);
+				System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+				listeners = result;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Configure the zones, as done by an MPE Configuration Message. The lower zone is managed on channel 0 and uses
+	 * the channels above it as member channels, the upper zone is managed on channel 15 and uses the channels below
+	 * it. The default is a lower zone of 15 member channels.
+	 *
+	 * @param lowerMembers the number of member channels of the lower zone, 0 to disable it
+	 * @param upperMembers the number of member channels of the upper zone, 0 to disable it
+	 */
+	public synchronized void setZones(int lowerMembers, int upperMembers) {
+		if (lowerMembers < 0 || upperMembers < 0 || lowerMembers > 15 || upperMembers > 15) {
+			throw new IllegalArgumentException("Invalid zones: " + lowerMembers + ", " + upperMembers);
+		}
+		// a zone shrinks the other one if they overlap, the manager channel of one can't be a member of the other
+		if (lowerMembers + upperMembers > 14) {
+			upperMembers = Math.max(0, 14 - lowerMembers);
+		}
+		this.lowerMembers = lowerMembers;
+		this.upperMembers = upperMembers;
+		Arrays.fill(managers, -1);
+		if (lowerMembers > 0) {
+			managers[0] = 0;
+			bendRanges[0] = DEFAULT_MANAGER_BEND_RANGE;
+			for (int channel = 1; channel <= lowerMembers; channel++) {
+				managers[channel] = 0;
+				bendRanges[channel] = DEFAULT_MEMBER_BEND_RANGE;
+			}
+		}
+		if (upperMembers > 0) {
+			managers[15] = 15;
+			bendRanges[15] = DEFAULT_MANAGER_BEND_RANGE;
+			for (int channel = 14; channel >= 15 - upperMembers; channel--) {
+				managers[channel] = 15;
+				bendRanges[channel] = DEFAULT_MEMBER_BEND_RANGE;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of member channels of the lower zone
+	 */
+	public synchronized int getLowerZoneMembers() {
+		return lowerMembers;
+	}
+
+	/**
+	 * @return the number of member channels of the upper zone
+	 */
+	public synchronized int getUpperZoneMembers() {
+		return upperMembers;
+	}
+
+	/**
+	 * @return true if expression changes are only delivered by {@link #flush()}
+	 */
+	public synchronized boolean isCoalescing() {
+		return coalescing;
+	}
+
+	/**
+	 * Deliver expression changes only when {@link #flush()} is called, one update per changed note. Notes on and
+	 * off are always delivered immediately. Disabled by default.
+	 *
+	 * @param coalescing true to coalesce expression changes
+	 */
+	public synchronized void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	/**
+	 * @param channel the channel of the note
+	 * @return the note played on the channel, -1 if there is none
+	 */
+	public synchronized int getNote(int channel) {
+		return notes[channel];
+	}
+
+	/**
+	 * @param channel the channel of the note
+	 * @return the pitch of the note in semitones, including the per-note and the zone pitch bend
+	 */
+	public synchronized float getPitch(int channel) {
+		return pitch(channel);
+	}
+
+	/**
+	 * @param channel the channel of the note
+	 * @return the pressure of the note, from 0 to 1
+	 */
+	public synchronized float getPressure(int channel) {
+		return pressures[channel] / 127f;
+	}
+
+	/**
+	 * @param channel the channel of the note
+	 * @return the timbre of the note, from 0 to 1
+	 */
+	public synchronized float getTimbre(int channel) {
+		return timbres[channel] / 127f;
+	}
+
+	public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		final int command = status & 0xF0;
+		if (command == MidiEvent.CONTROL_CHANGE && data1 != TIMBRE_CC) {
+			// the RPNs configuring the zones call back onParameter, which takes the lock of the engine itself
+			decoder.onShortMessage(status, data1, data2, timeStamp);
+			return;
+		}
+		final int channel = status & 0x0F;
+		synchronized (deliveryLock) {
+			final int noteCommand;
+			final int changed;
+			synchronized (this) {
+				switch (command) {
+					case MidiEvent.NOTE_ON:
+						if (data2 > 0) {
+							notes[channel] = data1;
+							noteCommand = MidiEvent.NOTE_ON;
+							changed(channel);
+						} else {
+							// note on with velocity 0 is a note off
+							noteOff(channel, data1);
+							noteCommand = MidiEvent.NOTE_OFF;
+						}
+						break;
+					case MidiEvent.NOTE_OFF:
+						noteOff(channel, data1);
+						noteCommand = MidiEvent.NOTE_OFF;
+						break;
+					case 0xD0:
+						pressures[channel] = data1;
+						noteCommand = 0;
+						changed(channel);
+						break;
+					case 0xE0:
+						pitchBends[channel] = data1 | (data2 << 7);
+						noteCommand = 0;
+						if (managers[channel] == channel) {
+							// the pitch bend of the manager channel applies to the whole zone
+							for (int member = 0; member < 16; member++) {
+								if (managers[member] == channel && member != channel) {
+									changed(member);
+								}
+							}
+						}
+						changed(channel);
+						break;
+					case MidiEvent.CONTROL_CHANGE:
+						timbres[channel] = data2;
+						noteCommand = 0;
+						changed(channel);
+						break;
+					default:
+						return;
+				}
+				changed = changedChannels;
+				changedChannels = 0;
+				copyExpressions(changed);
+			}
+			final MpeListener[] current = listeners;
+			if (noteCommand == MidiEvent.NOTE_ON) {
+				for (int i = 0; i < current.length; i++) {
+					current[i].mpeNoteOn(channel, data1, data2);
+				}
+			} else if (noteCommand == MidiEvent.NOTE_OFF) {
+				for (int i = 0; i < current.length; i++) {
+					current[i].mpeNoteOff(channel, data1, data2);
+				}
+			}
+			deliverExpressions(changed, current);
+		}
+	}
+
+	/**
+	 * Called by the decoder for the RPNs configuring MPE, not meant to be called directly.
+	 */
+	public synchronized void onParameter(int channel, int type, int number, int value, long timeStamp) {
+		if (type != Parameter.RPN) {
+			return;
+		}
+		if (number == RPN_MPE_CONFIGURATION && (channel == 0 || channel == 15)) {
+			int members = Math.min(value >> 7, 15);
+			if (channel == 0) {
+				setZones(members, Math.min(upperMembers, Math.max(0, 14 - members)));
+			} else {
+				setZones(Math.min(lowerMembers, Math.max(0, 14 - members)), members);
+			}
+		} else if (number == RPN_PITCH_BEND_RANGE && managers[channel] != -1) {
+			float range = (value >> 7) + (value & 0x7F) / 100f;
+			int manager = managers[channel];
+			// the range sent on a member channel applies to all the member channels of the zone
+			for (int i = 0; i < 16; i++) {
+				if (channel == manager ? i == manager : (managers[i] == manager && i != manager)) {
+					bendRanges[i] = range;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deliver the latest expression of the notes changed since the last flush, when coalescing is enabled.
+	 */
+	public void flush() {
+		synchronized (deliveryLock) {
+			int dirty;
+			synchronized (this) {
+				dirty = dirtyChannels;
+				dirtyChannels = 0;
+				copyExpressions(dirty);
+			}
+			deliverExpressions(dirty, listeners);
+		}
+	}
+
+	private void noteOff(int channel, int note) {
+		if (notes[channel] == note) {
+			notes[channel] = -1;
+			pressures[channel] = 0;
+			dirtyChannels &= ~(1 << channel);
+		}
+	}
+
+	private void changed(int channel) {
+		if (notes[channel] == -1) {
+			return;
+		}
+		if (coalescing) {
+			dirtyChannels |= 1 << channel;
+		} else {
+			changedChannels |= 1 << channel;
+		}
+	}
+
+	/**
+	 * Copy the expression of the given channels, while holding both the lock of the engine and the delivery lock.
+	 */
+	private void copyExpressions(int channels) {
+		for (int bits = channels; bits != 0; bits &= bits - 1) {
+			int channel = Integer.numberOfTrailingZeros(bits);
+			deliveryNotes[channel] = notes[channel];
+			deliveryPitches[channel] = pitch(channel);
+			deliveryPressures[channel] = pressures[channel] / 127f;
+			deliveryTimbres[channel] = timbres[channel] / 127f;
+		}
+	}
+
+	/**
+	 * Call the listeners with the copied expression of the given channels, holding only the delivery lock.
+	 */
+	private void deliverExpressions(int channels, MpeListener[] current) {
+		for (int bits = channels; bits != 0; bits &= bits - 1) {
+			int channel = Integer.numberOfTrailingZeros(bits);
+			int note = deliveryNotes[channel];
+			float pitch = deliveryPitches[channel];
+			float pressure = deliveryPressures[channel];
+			float timbre = deliveryTimbres[channel];
+			for (int i = 0; i < current.length; i++) {
+				current[i].mpeExpression(channel, note, pitch, pressure, timbre);
+			}
+		}
+	}
+
+	private float pitch(int channel) {
+		float pitch = notes[channel] + bend(channel);
+		int manager = managers[channel];
+		if (manager != -1 && manager != channel) {
+			pitch += bend(manager);
+		}
+		return pitch;
+	}
+
+	private float bend(int channel) {
+		float range = (managers[channel] == -1) ? DEFAULT_MANAGER_BEND_RANGE : bendRanges[channel];
+		return (pitchBends[channel] - MidiStateSnapshot.PITCH_BEND_CENTER) * range / 8192f;
+	}
+}
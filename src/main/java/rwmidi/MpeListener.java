@@ -0,0 +1,37 @@
+package rwmidi;
+
+/**
+ * Listener receiving the notes and per-note expression decoded by an {@link MpeEngine}. In MPE every note is played
+ * on its own member channel, so the channel identifies the note until it is released. Register it using
+ * {@link MpeEngine#addMpeListener(MpeListener)}.
+ */
+public interface MpeListener {
+	/**
+	 * Called when a note starts.
+	 *
+	 * @param channel  the channel of the note
+	 * @param note     the note number
+	 * @param velocity the note on velocity
+	 */
+	void mpeNoteOn(int channel, int note, int velocity);
+
+	/**
+	 * Called when a note is released.
+	 *
+	 * @param channel  the channel of the note
+	 * @param note     the note number
+	 * @param velocity the note off velocity
+	 */
+	void mpeNoteOff(int channel, int note, int velocity);
+
+	/**
+	 * Called when the expression of a note changes, with all its dimensions combined.
+	 *
+	 * @param channel  the channel of the note
+	 * @param note     the note number
+	 * @param pitch    the pitch of the note in semitones, including the per-note and the zone pitch bend
+	 * @param pressure the pressure of the note, from 0 to 1
+	 * @param timbre   the timbre of the note (controller 74), from 0 to 1
+	 */
+	void mpeExpression(int channel, int note, float pitch, float pressure, float timbre);
+}
@@ -0,0 +1,103 @@
+package rwmidi;
+
+/**
+ * Static helpers to store a MIDI short message in a single int. The status byte is stored in the lowest byte,
+ * followed by the first and the second data byte, which is the layout used by most native MIDI APIs. Packed
+ * messages can be kept in primitive arrays and queues without creating message objects.
+ */
+public final class PackedMessage {
+
+	private PackedMessage() {
+	}
+
+	/**
+	 * Pack a short message into an int.
+	 *
+	 * @param status status byte of the message
+	 * @param data1  first data byte
+	 * @param data2  second data byte
+	 * @return the packed message
+	 */
+	public static int pack(final int status, final int data1, final int data2) {
+		return (status & 0xFF) | ((data1 & 0x7F) << 8) | ((data2 & 0x7F) << 16);
+	}
+
+	/**
+	 * @return the status byte of the packed message
+	 */
+	public static int getStatus(final int packed) {
+		return packed & 0xFF;
+	}
+
+	/**
+	 * @return the command of the packed message (the status byte without the channel), for example 0x90 for NOTE ON
+	 */
+	public static int getCommand(final int packed) {
+		return packed & 0xF0;
+	}
+
+	/**
+	 * @return the channel of the packed message
+	 */
+	public static int getChannel(final int packed) {
+		return packed & 0x0F;
+	}
+
+	/**
+	 * @return the first data byte of the packed message
+	 */
+	public static int getData1(final int packed) {
+		return (packed >> 8) & 0x7F;
+	}
+
+	/**
+	 * @return the second data byte of the packed message
+	 */
+	public static int getData2(final int packed) {
+		return (packed >> 16) & 0x7F;
+	}
+
+	/**
+	 * @param status status byte of a short message
+	 * @return the length in bytes of a short message with this status byte, or 0 if the status byte is not the
+	 * status byte of a short message
+	 */
+	public static int getMessageLength(final int status) {
+		if (status < 0x80 || status > 0xFF) {
+			return 0;
+		}
+		if (status < 0xF0) {
+			final int command = status & 0xF0;
+			return (command == 0xC0 || command == 0xD0) ? 2 : 3;
+		}
+		switch (status) {
+		case 0xF1:
+		case 0xF3:
+			return 2;
+		case 0xF2:
+			return 3;
+		case 0xF0:
+		case 0xF7:
+		case 0xF4:
+		case 0xF5:
+			// sysex, and the undefined system common status bytes
+			return 0;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * @return true if the status byte and the data bytes used by the message are in range
+	 */
+	public static boolean isValid(final int status, final int data1, final int data2) {
+		final int length = getMessageLength(status);
+		if (length == 0) {
+			return false;
+		}
+		if (length > 1 && (data1 < 0 || data1 > 0x7F)) {
+			return false;
+		}
+		return length < 3 || (data2 >= 0 && data2 <= 0x7F);
+	}
+}
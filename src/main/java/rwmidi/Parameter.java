@@ -0,0 +1,86 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a 14-bit parameter change assembled by a {@link ParameterDecoder} from several Controller Change
+ * messages: a high resolution controller sent as MSB and LSB controllers, or a registered (RPN) or non-registered
+ * (NRPN) parameter number followed by data entry controllers. Received by the parameterReceived(Parameter) callback.
+ */
+public class Parameter extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+	public static final int CONTROLLER = 0;
+	public static final int RPN = 1;
+	public static final int NRPN = 2;
+
+	private final int type;
+	private final int number;
+	private final int value;
+
+	/**
+	 * Create a parameter change.
+	 *
+	 * @param channel the channel of the parameter
+	 * @param type    {@link #CONTROLLER}, {@link #RPN} or {@link #NRPN}
+	 * @param number  the controller number of the MSB (0 - 31), or the 14-bit parameter number
+	 * @param value   the 14-bit value
+	 */
+	public Parameter(final int channel, final int type, final int number, final int value) {
+		super(CONTROL_CHANGE | channel, type == CONTROLLER ? number : 6, value >> 7);
+		this.midiChannel = channel;
+		this.type = type;
+		this.number = number;
+		this.value = value;
+	}
+
+	/**
+	 * @return {@link #CONTROLLER}, {@link #RPN} or {@link #NRPN}
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the controller number of the MSB for high resolution controllers, or the 14-bit parameter number
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return the 14-bit value of the parameter
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof Parameter)) {
+			return false;
+		}
+		Parameter other = (Parameter) obj;
+		return new EqualsBuilder()
+				.append(getType(), other.getType())
+				.append(getNumber(), other.getNumber())
+				.append(getValue(), other.getValue())
+				.append(getChannel(), other.getChannel())
+				.build();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(getType())
+				.append(getNumber())
+				.append(getValue())
+				.append(getChannel())
+				.build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.Parameter type: " + getType() + " number: " + getNumber() + " value: " + getValue();
+	}
+}
@@ -0,0 +1,438 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Assembles the Controller Change messages of a MidiInput into 14-bit parameter changes: high resolution
+ * controllers sent as an MSB controller (0 - 31) followed by the matching LSB controller (32 - 63), and registered
+ * (RPN) or non-registered (NRPN) parameters selected with controllers 101/100 or 99/98 and changed with the data
+ * entry controllers 6/38 and the increment/decrement controllers 96/97.
+ * <p/>
+ * Parameter changes are delivered to {@link ParameterListener}s as primitive values, and as {@link Parameter}
+ * events to the parameterReceived(Parameter) callbacks plugged on the input. The state is kept per channel in flat
+ * arrays, and decoding doesn't allocate.
+ * <p/>
+ * Senders often omit the LSB. By default an MSB is delivered immediately, and delivered again combined with the LSB
+ * if it follows, so an NRPN change with both data entry controllers gives 2 parameter changes. With an LSB timeout,
+ * an MSB is held until its LSB arrives or the timeout expires, and the 4 controllers of an NRPN change give a single
+ * parameter change. Expired MSBs of a decoder attached to an input are delivered when the next message arrives on the
+ * input, realtime messages like clock or active sensing included. As a sender may go quiet right after an MSB, they
+ * are also delivered when {@link #poll()} is called, for example from the drawing loop of a sketch, which is the only
+ * way a standalone decoder delivers them.
+ * <p/>
+ * The listeners and plugs are called outside of the lock of the decoder, so they may configure the decoder or block
+ * without holding up the threads using it. Deliveries are serialized, so they are never called concurrently by the
+ * same decoder.
+ * <p/>
+ * The controllers are still delivered to the input as usual. Use {@link #setConsumeControllers(boolean)} to hide
+ * the controllers assembled by the decoder from the other listeners and the plugs of the input.
+ */
+public class ParameterDecoder implements ShortMessageListener {
+	private static final int SLOTS = 33;
+	// slots 0 - 31 are the high resolution controllers, the last slot is data entry
+	private static final int DATA_SLOT = 32;
+	private static final int NONE = -1;
+	private static final int NULL_PARAMETER = 0x3FFF;
+
+	private final MidiInput input;
+	private volatile ParameterListener[] listeners = new ParameterListener[0];
+	private int highResolutionMask = 0;
+	private long lsbTimeoutNanos = 0;
+	private boolean consumeControllers = false;
+
+	private final byte[] msbValues = new byte[16 * SLOTS];
+	private final boolean[] pending = new boolean[16 * SLOTS];
+	private final long[] deadlines = new long[16 * SLOTS];
+	private final long[] pendingTimeStamps = new long[16 * SLOTS];
+	private long nextDeadline = Long.MAX_VALUE;
+
+	private final int[] selectedTypes = new int[16];
+	private final int[] rpnNumbers = new int[16];
+	private final int[] nrpnNumbers = new int[16];
+	private final int[] dataValues = new int[16];
+
+	// parameter changes decoded under the lock of the decoder, delivered after releasing it; guarded by the delivery
+	// lock, which is always taken before the lock of the decoder
+	private final Object deliveryLock = new Object();
+	private int[] resultChannels = new int[16 * SLOTS + 1];
+	private int[] resultTypes = new int[16 * SLOTS + 1];
+	private int[] resultNumbers = new int[16 * SLOTS + 1];
+	private int[] resultValues = new int[16 * SLOTS + 1];
+	private long[] resultTimeStamps = new long[16 * SLOTS + 1];
+	private int resultCount = 0;
+	private int deliveredCount = 0;
+
+	/**
+	 * Create a decoder fed by the messages of an input, delivering to the plugs of the input.
+	 *
+	 * @param input the input to decode
+	 */
+	public ParameterDecoder(MidiInput input) {
+		this.input = input;
+		Arrays.fill(selectedTypes, NONE);
+		Arrays.fill(rpnNumbers, NULL_PARAMETER);
+		Arrays.fill(nrpnNumbers, NULL_PARAMETER);
+		if (input != null) {
+			input.addShortMessageListener(this);
+		}
+	}
+
+	/**
+	 * Create a decoder fed by calling {@link #onShortMessage(int, int, int, long)}, delivering to listeners only.
+	 */
+	public ParameterDecoder() {
+		this(null);
+	}
+
+	/**
+	 * Stop decoding the messages of the input.
+	 */
+	public synchronized void close() {
+		if (input != null) {
+			input.removeShortMessageListener(this);
+			if (consumeControllers) {
+				input.setParameterDecoder(this, null);
+				consumeControllers = false;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the controllers assembled by the decoder are hidden from the input
+	 */
+	public synchronized boolean isConsumeControllers() {
+		return consumeControllers;
+	}
+
+	/**
+	 * Hide the controllers assembled into parameter changes from the other listeners and the plugs of the input, so
+	 * that an NRPN change calls the plugs once with a {@link Parameter} instead of 4 times with a {@link Controller}.
+	 * The consumed controllers are the RPN and NRPN selection controllers (99, 98, 101, 100), the data entry and
+	 * increment/decrement controllers (6, 38, 96, 97) while a parameter is selected, and the MSB and LSB of the high
+	 * resolution controllers. Only one decoder of an input can consume controllers. Controllers are not consumed by
+	 * default.
+	 *
+	 * @param consume true to hide the assembled controllers from the input
+	 * @throws IllegalStateException if the decoder isn't attached to an input, or if another decoder of the input
+	 *                               already consumes controllers
+	 */
+	public synchronized void setConsumeControllers(boolean consume) {
+		if (input == null) {
+			throw new IllegalStateException("The decoder is not attached to an input");
+		}
+		if (consume == consumeControllers) {
+			return;
+		}
+		if (consume) {
+			// the input calls the decoder itself, before its listeners and plugs
+			input.setParameterDecoder(null, this);
+			input.removeShortMessageListener(this);
+		} else {
+			input.addShortMessageListener(this);
+			input.setParameterDecoder(this, null);
+		}
+		consumeControllers = consume;
+	}
+
+	/**
+	 * Register a listener receiving every parameter change.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void addParameterListener(final ParameterListener listener) {
+		if (listener == null) {
+			return;
+		}
+		ParameterListener[] current = listeners;
+		ParameterListener[] result = Arrays.copyOf(current, current.length + 1);
+		result[current.length] = listener;
+		listeners = result;
+	}
+
+	/**
+	 * Remove a listener added with {@link #addParameterListener(ParameterListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void removeParameterListener(final ParameterListener listener) {
+		ParameterListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				ParameterListener[] result = new ParameterListener[current.length - 1];
+				System.arraycopy(current, 0, result, 0, i);
+				System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+				listeners = result;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decode a controller as a high resolution controller, combining it with the controller 32 numbers higher as
+	 * LSB. Controllers are decoded as 7-bit controllers by default.
+	 *
+	 * @param cc      the controller number of the MSB, 0 to 31, except data entry (6)
+	 * @param enabled true to decode the controller as high resolution controller
+	 */
+	public synchronized void setHighResolutionController(int cc, boolean enabled) {
+		if (cc < 0 || cc > 31 || cc == 6) {
+			throw new IllegalArgumentException("Invalid high resolution controller: " + cc);
+		}
+		if (enabled) {
+			highResolutionMask |= 1 << cc;
+		} else {
+			highResolutionMask &= ~(1 << cc);
+		}
+	}
+
+	/**
+	 * @param cc the controller number of the MSB
+	 * @return true if the controller is decoded as high resolution controller
+	 */
+	public synchronized boolean isHighResolutionController(int cc) {
+		return cc >= 0 && cc < 32 && (highResolutionMask & (1 << cc)) != 0;
+	}
+
+	/**
+	 * @return the time an MSB waits for its LSB, in microseconds
+	 */
+	public synchronized long getLsbTimeout() {
+		return lsbTimeoutNanos / 1000L;
+	}
+
+	/**
+	 * Set the time an MSB waits for its LSB before being delivered alone. The default is 0, delivering every MSB
+	 * immediately. MSBs already waiting are delivered with the next message of the input or the next call to
+	 * {@link #poll()}, or immediately for a standalone decoder.
+	 *
+	 * @param micros the timeout in microseconds
+	 */
+	public void setLsbTimeout(long micros) {
+		synchronized (deliveryLock) {
+			synchronized (this) {
+				lsbTimeoutNanos = Math.max(0, micros) * 1000L;
+				if (lsbTimeoutNanos == 0 && nextDeadline != Long.MAX_VALUE) {
+					if (input == null) {
+						expire(Long.MAX_VALUE);
+					} else {
+						final long now = System.nanoTime();
+						for (int i = 0; i < pending.length; i++) {
+							deadlines[i] = now;
+						}
+						nextDeadline = now;
+					}
+				}
+			}
+			deliverResults();
+		}
+	}
+
+	/**
+	 * Deliver the MSBs whose LSB timeout has expired, on the calling thread. A decoder attached to an input also
+	 * delivers them when the next message arrives on the input; calling this method makes sure that an MSB sent
+	 * without LSB doesn't wait for the next message. The plugs of the input are then called from the calling thread.
+	 */
+	public void poll() {
+		synchronized (deliveryLock) {
+			synchronized (this) {
+				if (nextDeadline == Long.MAX_VALUE) {
+					return;
+				}
+				expire(System.nanoTime());
+			}
+			deliverResults();
+		}
+	}
+
+	public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		if (input != null && input.getParameterDecoder() == this) {
+			// consuming controllers, the input already called decode
+			return;
+		}
+		decode(status, data1, data2, timeStamp);
+	}
+
+	/**
+	 * Decode a message.
+	 *
+	 * @return true if the message is a controller assembled into a parameter change
+	 */
+	boolean decode(int status, int data1, int data2, long timeStamp) {
+		synchronized (deliveryLock) {
+			final boolean consumed;
+			synchronized (this) {
+				consumed = decodeLocked(status, data1, data2, timeStamp);
+			}
+			deliverResults();
+			return consumed;
+		}
+	}
+
+	private boolean decodeLocked(int status, int data1, int data2, long timeStamp) {
+		if (nextDeadline != Long.MAX_VALUE) {
+			expire(System.nanoTime());
+		}
+		if ((status & 0xF0) != MidiEvent.CONTROL_CHANGE) {
+			return false;
+		}
+		final int channel = status & 0x0F;
+		if (data1 < 32 && (highResolutionMask & (1 << data1)) != 0) {
+			msb(channel, data1, data2, timeStamp);
+			return true;
+		}
+		if (data1 >= 32 && data1 < 64 && (highResolutionMask & (1 << (data1 - 32))) != 0) {
+			lsb(channel, data1 - 32, data2, timeStamp);
+			return true;
+		}
+		switch (data1) {
+			case 6:
+				if (selectedTypes[channel] == NONE) {
+					return false;
+				}
+				msb(channel, DATA_SLOT, data2, timeStamp);
+				return true;
+			case 38:
+				if (selectedTypes[channel] == NONE) {
+					return false;
+				}
+				lsb(channel, DATA_SLOT, data2, timeStamp);
+				return true;
+			case 96:
+			case 97:
+				if (selectedTypes[channel] == NONE) {
+					return false;
+				}
+				flush(channel * SLOTS + DATA_SLOT);
+				int value = dataValues[channel] + (data1 == 96 ? 1 : -1);
+				addResult(channel, DATA_SLOT, Math.min(Math.max(value, 0), NULL_PARAMETER), timeStamp);
+				return true;
+			case 99:
+				select(channel, Parameter.NRPN, (data2 << 7) | (nrpnNumbers[channel] & 0x7F));
+				return true;
+			case 98:
+				select(channel, Parameter.NRPN, (nrpnNumbers[channel] & 0x3F80) | data2);
+				return true;
+			case 101:
+				select(channel, Parameter.RPN, (data2 << 7) | (rpnNumbers[channel] & 0x7F));
+				return true;
+			case 100:
+				select(channel, Parameter.RPN, (rpnNumbers[channel] & 0x3F80) | data2);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void select(int channel, int type, int number) {
+		flush(channel * SLOTS + DATA_SLOT);
+		if (type == Parameter.RPN) {
+			rpnNumbers[channel] = number;
+		} else {
+			nrpnNumbers[channel] = number;
+		}
+		selectedTypes[channel] = (number == NULL_PARAMETER) ? NONE : type;
+		msbValues[channel * SLOTS + DATA_SLOT] = 0;
+		dataValues[channel] = 0;
+	}
+
+	private void msb(int channel, int slot, int value, long timeStamp) {
+		final int i = channel * SLOTS + slot;
+		flush(i);
+		msbValues[i] = (byte) value;
+		if (lsbTimeoutNanos == 0) {
+			addResult(channel, slot, value << 7, timeStamp);
+			return;
+		}
+		pending[i] = true;
+		deadlines[i] = System.nanoTime() + lsbTimeoutNanos;
+		pendingTimeStamps[i] = timeStamp;
+		if (deadlines[i] - nextDeadline < 0 || nextDeadline == Long.MAX_VALUE) {
+			nextDeadline = deadlines[i];
+		}
+	}
+
+	private void lsb(int channel, int slot, int value, long timeStamp) {
+		final int i = channel * SLOTS + slot;
+		pending[i] = false;
+		addResult(channel, slot, (msbValues[i] << 7) | value, timeStamp);
+	}
+
+	/**
+	 * Deliver a pending MSB without its LSB.
+	 */
+	private void flush(int i) {
+		if (pending[i]) {
+			pending[i] = false;
+			addResult(i / SLOTS, i % SLOTS, msbValues[i] << 7, pendingTimeStamps[i]);
+		}
+	}
+
+	private void expire(long now) {
+		nextDeadline = Long.MAX_VALUE;
+		for (int i = 0; i < pending.length; i++) {
+			if (pending[i]) {
+				if (now == Long.MAX_VALUE || now - deadlines[i] >= 0) {
+					flush(i);
+				} else if (nextDeadline == Long.MAX_VALUE || deadlines[i] - nextDeadline < 0) {
+					nextDeadline = deadlines[i];
+				}
+			}
+		}
+	}
+
+	private void addResult(int channel, int slot, int value, long timeStamp) {
+		final int type;
+		final int number;
+		if (slot == DATA_SLOT) {
+			type = selectedTypes[channel];
+			number = (type == Parameter.RPN) ? rpnNumbers[channel] : nrpnNumbers[channel];
+			dataValues[channel] = value;
+		} else {
+			type = Parameter.CONTROLLER;
+			number = slot;
+		}
+		if (resultCount == resultValues.length) {
+			// only when a listener feeds the decoder while its results are being delivered
+			final int capacity = resultCount * 2;
+			resultChannels = Arrays.copyOf(resultChannels, capacity);
+			resultTypes = Arrays.copyOf(resultTypes, capacity);
+			resultNumbers = Arrays.copyOf(resultNumbers, capacity);
+			resultValues = Arrays.copyOf(resultValues, capacity);
+			resultTimeStamps = Arrays.copyOf(resultTimeStamps, capacity);
+		}
+		resultChannels[resultCount] = channel;
+		resultTypes[resultCount] = type;
+		resultNumbers[resultCount] = number;
+		resultValues[resultCount] = value;
+		resultTimeStamps[resultCount] = timeStamp;
+		resultCount++;
+	}
+
+	/**
+	 * Call the listeners and plugs with the parameter changes decoded so far. Called while holding the delivery lock
+	 * but not the lock of the decoder. A listener feeding the decoder again appends to the results, which are then
+	 * delivered in order by the inner call.
+	 */
+	private void deliverResults() {
+		while (deliveredCount < resultCount) {
+			final int i = deliveredCount++;
+			final int channel = resultChannels[i];
+			final int type = resultTypes[i];
+			final int number = resultNumbers[i];
+			final int value = resultValues[i];
+			final ParameterListener[] current = listeners;
+			for (int j = 0; j < current.length; j++) {
+				try {
+					current[j].onParameter(channel, type, number, value, resultTimeStamps[i]);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			if (input != null && input.hasPlugs(MidiEvent.CONTROL_CHANGE | channel)) {
+				input.dispatchEvent(new Parameter(channel, type, number, value));
+			}
+		}
+		resultCount = 0;
+		deliveredCount = 0;
+	}
+}
@@ -0,0 +1,21 @@
+package rwmidi;
+
+/**
+ * Listener receiving the 14-bit parameter changes assembled by a {@link ParameterDecoder}, without creating
+ * {@link Parameter} objects. Register it using {@link ParameterDecoder#addParameterListener(ParameterListener)}.
+ * <p/>
+ * The listener is called on the thread delivering the MIDI data, or on the thread calling
+ * {@link ParameterDecoder#poll()}, so implementations should return quickly.
+ */
+public interface ParameterListener {
+	/**
+	 * Called for every parameter change.
+	 *
+	 * @param channel   the channel of the parameter
+	 * @param type      {@link Parameter#CONTROLLER}, {@link Parameter#RPN} or {@link Parameter#NRPN}
+	 * @param number    the controller number of the MSB (0 - 31), or the 14-bit parameter number
+	 * @param value     the 14-bit value
+	 * @param timeStamp the time stamp of the last message of the change in microseconds, -1 if unknown
+	 */
+	void onParameter(int channel, int type, int number, int value, long timeStamp);
+}
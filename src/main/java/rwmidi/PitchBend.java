@@ -0,0 +1,62 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a MIDI Pitch Bend message. The two data bytes are combined into the 14-bit value, which you can access
+ * using {@Link PitchBend-getValue}, or relative to the center using {@Link PitchBend-getBend}.
+ */
+public class PitchBend extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+	public static final int CENTER = 8192;
+
+	/**
+	 * Create a Pitch Bend message.
+	 *
+	 * @param channel Pitch Bend channel
+	 * @param value   Pitch Bend value, from 0 to 16383, 8192 being the center
+	 */
+	public PitchBend(final int channel, final int value) {
+		super(PITCH_BEND | channel, value & 0x7F, (value >> 7) & 0x7F);
+	}
+
+	/**
+	 * @return the 14-bit value of the pitch bend, from 0 to 16383
+	 */
+	public int getValue() {
+		return getData1() | (getData2() << 7);
+	}
+
+	/**
+	 * @return the value of the pitch bend relative to the center, from -8192 to 8191
+	 */
+	public int getBend() {
+		return getValue() - CENTER;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof PitchBend)) {
+			return false;
+		}
+		PitchBend other = (PitchBend) obj;
+		return new EqualsBuilder()
+				.append(getValue(), other.getValue())
+				.append(getChannel(), other.getChannel())
+				.build();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(getValue())
+				.append(getChannel())
+				.build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.PitchBend value: " + getValue();
+	}
+}
@@ -1,9 +1,10 @@
 package rwmidi;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-
-import javax.sound.midi.MidiMessage;
-import javax.sound.midi.ShortMessage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper class for callback plugs. You don't usually need to access this class.
@@ -12,7 +13,10 @@ import javax.sound.midi.ShortMessage;
  */
 
 class Plug {
+	private static final MethodType CALLBACK_TYPE = MethodType.methodType(void.class, Object.class);
+
 	private final Method method;
+	private final MethodHandle handle;
 	private final String methodName;
 	private final Object object;
 	private final Class objectClass;
@@ -20,12 +24,20 @@ class Plug {
 
 	private int status = -1;
 	private int channel = -1;
+	private final AtomicInteger failures = new AtomicInteger();
+	private volatile boolean disabled = false;
+	/**
+	 * Histogram of the time spent in the callback, resolved when the plug is registered with metrics enabled or when
+	 * metrics are enabled, null otherwise.
+	 */
+	volatile LatencyHistogram latency = null;
 
 	Plug(final Object object, final String methodName, final int channel, final int status) {
 		this.object = object;
 		objectClass = getObject().getClass();
 		this.methodName = methodName;
 		method = initPlug();
+		handle = initHandle();
 		setStatus(status);
 		this.channel = channel;
 	}
@@ -39,31 +51,70 @@ class Plug {
 		return false;
 	}
 
-	void callPlug(MidiInput _input, final MidiMessage midiMessage) {
-		try {
-			if ((midiMessage.getStatus() & 0xF0) != getStatus() && getStatus() != -1)
-				return;
-			if (midiMessage instanceof ShortMessage) {
-				ShortMessage smsg = (ShortMessage) midiMessage;
-				if (smsg.getChannel() != channel && channel != -1)
-					return;
-			}
-			MidiEvent event;
-			if (midiMessage instanceof MidiEvent) {
-				event = (MidiEvent) midiMessage;
-			} else {
-				event = MidiEvent.create(midiMessage);
-			}
+	/**
+	 * Call the plug with an already decoded event. The status and channel filters are not checked here, they are
+	 * resolved once by the {@link DispatchTable} the plug is registered in. Exceptions thrown by the callback are
+	 * passed on unchanged.
+	 */
+	void callPlug(final MidiEvent event) throws Throwable {
+		if (paramClass.isInstance(event)) {
+			handle.invokeExact((Object) event);
+		}
+	}
 
-			if (event != null) {
-				event.setInput(_input);
-				if (paramClass.isInstance(event)) {
-					method.invoke(getObject(), new Object[] { event });
-				}
-			}
-		} catch (Exception e) {
-			throw new RuntimeException("Error on calling plug: " + methodName, e);
+	/**
+	 * @return the number of failures of the plug, including this one
+	 */
+	int recordFailure() {
+		return failures.incrementAndGet();
+	}
+
+	/**
+	 * Stop calling the plug.
+	 *
+	 * @return false if the plug was already disabled
+	 */
+	boolean disable() {
+		if (disabled) {
+			return false;
 		}
+		disabled = true;
+		return true;
+	}
+
+	/**
+	 * @return true if the plug should be part of a dispatch table
+	 */
+	boolean isActive() {
+		return handle != null && !disabled;
+	}
+
+	/**
+	 * @param messageStatus the status byte of a channel or system common message
+	 * @return true if messages with this status byte pass the status and channel filters of the plug
+	 */
+	boolean matches(int messageStatus) {
+		if (messageStatus >= 0xF0) {
+			// system messages have no channel, they are matched on the whole status byte
+			return channel == -1 && (status == -1 || status == messageStatus);
+		}
+		if (status != -1 && (messageStatus & 0xF0) != status)
+			return false;
+		return channel == -1 || (messageStatus & 0x0F) == channel;
+	}
+
+	/**
+	 * @return true if sysex messages pass the status filter of the plug
+	 */
+	boolean matchesSysex() {
+		return status == -1 || status == MidiEvent.SYSEX_START;
+	}
+
+	/**
+	 * @return the name of the callback, as class name and method name
+	 */
+	String getName() {
+		return objectClass.getName() + "." + methodName;
 	}
 
 	protected int getChannel() {
@@ -107,6 +158,18 @@ class Plug {
 		return null;
 	}
 
+	private MethodHandle initHandle() {
+		if (method == null) {
+			return null;
+		}
+		try {
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method).bindTo(object).asType(CALLBACK_TYPE);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Error on plug: >" + methodName + "< Method is not accessible", e);
+		}
+	}
+
 	protected void setChannel(int channel) {
 		this.channel = channel;
 	}
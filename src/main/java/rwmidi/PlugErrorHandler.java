@@ -0,0 +1,28 @@
+package rwmidi;
+
+/**
+ * Handler notified when a callback registered with one of the plug methods of {@link MidiInput}, or a short message
+ * or sysex listener, throws an exception. The exception doesn't stop the delivery of the message to the other
+ * callbacks. Set a handler using {@link MidiInput#setPlugErrorHandler(PlugErrorHandler)}; by default the stack trace
+ * of the exception is printed.
+ */
+public interface PlugErrorHandler {
+	/**
+	 * Called on the thread dispatching the message when a callback throws an exception.
+	 *
+	 * @param object     the object the callback is registered for, or the listener
+	 * @param methodName the name of the callback method
+	 * @param event      the event passed to the callback, for a listener the event decoded from the message or null
+	 * @param error      the exception thrown by the callback
+	 */
+	void plugFailed(Object object, String methodName, MidiEvent event, Throwable error);
+
+	/**
+	 * Called when a callback has been disabled because it failed too many times (see
+	 * {@link MidiInput#setMaxPlugFailures(int)}). The callback isn't called anymore until it is plugged again.
+	 *
+	 * @param object     the object the callback is registered for
+	 * @param methodName the name of the callback method
+	 */
+	void plugDisabled(Object object, String methodName);
+}
@@ -0,0 +1,64 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a MIDI Polyphonic Key Pressure message, applying to a single note. You can access the note using
+ * {@Link PolyPressure-getPitch} and the pressure using {@Link PolyPressure-getPressure}.
+ */
+public class PolyPressure extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create a Polyphonic Key Pressure message.
+	 *
+	 * @param channel  the channel of the note
+	 * @param pitch    the pitch of the note
+	 * @param pressure the pressure
+	 */
+	public PolyPressure(final int channel, final int pitch, final int pressure) {
+		super(POLY_PRESSURE | channel, pitch, pressure);
+	}
+
+	/**
+	 * @return the pitch of the note
+	 */
+	public int getPitch() {
+		return getData1();
+	}
+
+	/**
+	 * @return the pressure on the note
+	 */
+	public int getPressure() {
+		return getData2();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof PolyPressure)) {
+			return false;
+		}
+		PolyPressure other = (PolyPressure) obj;
+		return new EqualsBuilder()
+				.append(getPitch(), other.getPitch())
+				.append(getPressure(), other.getPressure())
+				.append(getChannel(), other.getChannel())
+				.build();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(getPitch())
+				.append(getPressure())
+				.append(getChannel())
+				.build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.PolyPressure pitch: " + getPitch() + " pressure: " + getPressure();
+	}
+}
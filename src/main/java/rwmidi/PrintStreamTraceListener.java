@@ -0,0 +1,32 @@
+package rwmidi;
+
+import java.io.PrintStream;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Trace listener printing a hex dump of every received message to a stream, for example System.out.
+ */
+public class PrintStreamTraceListener implements MidiTraceListener {
+	private final PrintStream out;
+
+	/**
+	 * Create a trace listener printing to System.out.
+	 */
+	public PrintStreamTraceListener() {
+		this(System.out);
+	}
+
+	/**
+	 * Create a trace listener printing to the given stream.
+	 *
+	 * @param out the stream to print to
+	 */
+	public PrintStreamTraceListener(PrintStream out) {
+		this.out = out;
+	}
+
+	public void messageReceived(MidiInput input, MidiMessage message, long timeStamp) {
+		out.println(input.getName() + " " + timeStamp + " " + SysexMessage.toHex(message.getMessage()));
+	}
+}
@@ -20,6 +20,16 @@ public class ProgramChange extends MidiEvent {
 		super(ShortMessage.PROGRAM_CHANGE, number, -1);
 	}
 
+	/**
+	 * Create a Program Change message on a channel
+	 *
+	 * @param channel the channel of the message
+	 * @param number  the program change number
+	 */
+	public ProgramChange(final int channel, final int number) {
+		super(ShortMessage.PROGRAM_CHANGE | channel, number, -1);
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (null == obj || !(obj instanceof ProgramChange)) {
@@ -3,9 +3,6 @@ package rwmidi;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.sound.midi.MidiSystem;
-import javax.sound.midi.MidiUnavailableException;
-
 /**
  * RWMidi is a class containing static methods to get a list of the available MIDI devices.
  * You can ask RWMidi about available input and output devices. You can then use the methods
@@ -15,22 +12,22 @@ import javax.sound.midi.MidiUnavailableException;
  * rather requires you to use the returned MidiDevice object. This is because the number of
  * available devices can change between a call to the function listing the device and the call
  * opening the device, which could potentially lead to an index mismatch.
+ * <p/>
+ * The device list is read from the Java MIDI system the first time it is needed and then cached. Use
+ * {@link RWMidi#refreshDevices()} or {@link RWMidi#setAutoRefresh(long)} to pick up devices that have been
+ * connected or disconnected, and {@link RWMidi#addDeviceListener(DeviceListener)} to be notified about them.
  */
 public class RWMidi {
+	private static final MidiRouter ROUTER = new MidiRouter();
+
 	/**
 	 * Returns a specific input device
 	 *
 	 * @param name the name of the input device
-	 * @return
+	 * @return the device, or null if there is no input device with this name
 	 */
 	public static MidiInputDevice getInputDevice(String name) {
-		List<MidiInputDevice> devices = getInputDevices();
-		for (MidiInputDevice device : devices) {
-			if (name.equals(device.getName()))
-				return device;
-		}
-
-		return null;
+		return DeviceRegistry.getInstance().getInputDevice(name);
 	}
 
 	/**
@@ -38,55 +35,36 @@ public class RWMidi {
 	 */
 	public static String[] getInputDeviceNames() {
 		List<MidiInputDevice> devices = getInputDevices();
-		ArrayList<String> result = new ArrayList<String>();
-		for (MidiInputDevice device : devices) {
-			result.add(device.getName());
+		String[] result = new String[devices.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = devices.get(i).getName();
 		}
-		return result.toArray(new String[0]);
+		return result;
 	}
 
 	/**
 	 * @return the list of the available input devices.
 	 */
 	public static List<MidiInputDevice> getInputDevices() {
-		javax.sound.midi.MidiDevice.Info infos[] = MidiSystem.getMidiDeviceInfo();
-		List<MidiInputDevice> result = new ArrayList<MidiInputDevice>();
-		for (javax.sound.midi.MidiDevice.Info info : infos) {
-			javax.sound.midi.MidiDevice device;
-			try {
-				device = MidiSystem.getMidiDevice(info);
-				if (device.getMaxTransmitters() == 0)
-					continue;
-				result.add(new MidiInputDevice(info));
-			} catch (MidiUnavailableException e) {
-				e.printStackTrace();
-				continue;
-			}
-		}
-		return result;
+		return new ArrayList<MidiInputDevice>(DeviceRegistry.getInstance().getInputDevices());
 	}
 
 	/**
 	 * Returns a specific output device
 	 *
 	 * @param name the name of the output device
-	 * @return
+	 * @return the device, or null if there is no output device with this name
 	 */
 	public static MidiOutputDevice getOutputDevice(String name) {
-		List<MidiOutputDevice> devices = getOutputDevices();
-		for (MidiOutputDevice device : devices) {
-			if (name.equals(device.getName()))
-				return device;
-		}
-		return null;
+		return DeviceRegistry.getInstance().getOutputDevice(name);
 	}
 
 	/**
 	 * @return a list of the output devices names
 	 */
 	public static List<String> getOutputDeviceNames() {
-		List<MidiOutputDevice> devices = getOutputDevices();
-		List<String> result = new ArrayList<String>();
+		List<MidiOutputDevice> devices = DeviceRegistry.getInstance().getOutputDevices();
+		List<String> result = new ArrayList<String>(devices.size());
 		for (MidiOutputDevice device : devices) {
 			result.add(device.getName());
 		}
@@ -97,20 +75,73 @@ public class RWMidi {
 	 * @return the list of the available output devices.
 	 */
 	public static List<MidiOutputDevice> getOutputDevices() {
-		javax.sound.midi.MidiDevice.Info infos[] = MidiSystem.getMidiDeviceInfo();
-		List<MidiOutputDevice> result = new ArrayList<MidiOutputDevice>();
-		for (javax.sound.midi.MidiDevice.Info info : infos) {
-			javax.sound.midi.MidiDevice device;
-			try {
-				device = MidiSystem.getMidiDevice(info);
-				if (device.getMaxReceivers() == 0)
-					continue;
-				result.add(new MidiOutputDevice(info));
-			} catch (MidiUnavailableException e) {
-				e.printStackTrace();
-				continue;
-			}
-		}
-		return result;
+		return new ArrayList<MidiOutputDevice>(DeviceRegistry.getInstance().getOutputDevices());
+	}
+
+	/**
+	 * Read the list of available devices from the Java MIDI system again. Devices that are still available keep
+	 * the same MidiDevice objects, and the device listeners are notified about added and removed devices.
+	 */
+	public static void refreshDevices() {
+		DeviceRegistry.getInstance().refresh();
+	}
+
+	/**
+	 * Refresh the list of available devices periodically from a background thread.
+	 *
+	 * @param periodMillis refresh period in milliseconds, 0 to stop refreshing
+	 */
+	public static void setAutoRefresh(long periodMillis) {
+		DeviceRegistry.getInstance().setAutoRefresh(periodMillis);
+	}
+
+	/**
+	 * Register a listener notified when devices are added or removed at a refresh of the device list.
+	 *
+	 * @param listener the listener to add
+	 */
+	public static void addDeviceListener(DeviceListener listener) {
+		DeviceRegistry.getInstance().addListener(listener);
+	}
+
+	/**
+	 * Remove a listener added with {@link RWMidi#addDeviceListener(DeviceListener)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public static void removeDeviceListener(DeviceListener listener) {
+		DeviceRegistry.getInstance().removeListener(listener);
+	}
+
+	/**
+	 * Create a virtual MIDI port in the JVM. Messages sent on the outputs of the loopback are delivered directly to
+	 * its inputs. The loopback is listed among the input and output devices until it is removed.
+	 *
+	 * @param name the name of the loopback device
+	 * @return the created loopback
+	 */
+	public static MidiLoopback createLoopback(String name) {
+		MidiLoopback loopback = new MidiLoopback(name);
+		DeviceRegistry.getInstance().addLoopback(loopback);
+		return loopback;
+	}
+
+	/**
+	 * Remove a loopback created with {@link RWMidi#createLoopback(String)} from the device lists. Inputs and outputs
+	 * already opened on the loopback keep working until they are closed.
+	 *
+	 * @param loopback the loopback to remove
+	 */
+	public static void removeLoopback(MidiLoopback loopback) {
+		DeviceRegistry.getInstance().removeLoopback(loopback);
+	}
+
+	/**
+	 * Get the shared router, forwarding the messages of MidiInputs to MidiOutputs without decoding them.
+	 *
+	 * @return the router
+	 */
+	public static MidiRouter router() {
+		return ROUTER;
 	}
 }
@@ -0,0 +1,17 @@
+package rwmidi;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Short message whose bytes can be overwritten without validation, used by {@link MidiOutput} to send messages
+ * without allocating. The values have to be checked by the caller using {@link PackedMessage#isValid(int, int, int)}.
+ */
+final class ReusableShortMessage extends ShortMessage {
+
+	void set(final int status, final int data1, final int data2) {
+		data[0] = (byte) status;
+		data[1] = (byte) data1;
+		data[2] = (byte) data2;
+		length = PackedMessage.getMessageLength(status);
+	}
+}
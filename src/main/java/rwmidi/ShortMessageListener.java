@@ -0,0 +1,21 @@
+package rwmidi;
+
+/**
+ * Listener receiving the raw bytes of MIDI short messages (channel, system common and system realtime messages).
+ * Unlike the callbacks registered with {@link MidiInput#plug(Object)}, no event object is created for the listener,
+ * which makes it suitable for high rate controller streams. Register it using
+ * {@link MidiInput#addShortMessageListener(ShortMessageListener)}.
+ * <p/>
+ * The listener is called on the thread delivering the MIDI data, so implementations should return quickly.
+ */
+public interface ShortMessageListener {
+	/**
+	 * Called for every short message received on the input.
+	 *
+	 * @param status    the status byte of the message (0x80 - 0xFF)
+	 * @param data1     the first data byte, 0 if the message doesn't have one
+	 * @param data2     the second data byte, 0 if the message doesn't have one
+	 * @param timeStamp the time stamp of the message in microseconds, -1 if the device doesn't support time stamps
+	 */
+	void onShortMessage(int status, int data1, int data2, long timeStamp);
+}
@@ -0,0 +1,323 @@
+package rwmidi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Position in the events of a Standard MIDI File, either in a single track or in all the tracks merged by tick.
+ * Events are decoded one at a time when calling {@link #next()}, directly from the file data, and the fields of the
+ * current event are read using the getters. The payload of sysex and meta events is only copied when asked for.
+ * <p/>
+ * Get a cursor using {@link SmfReader#track(int)} or {@link SmfReader#merged()}. A cursor is not thread safe, but
+ * several cursors can be used at the same time on the same reader.
+ */
+public class SmfCursor {
+	/**
+	 * Status of meta events.
+	 */
+	public static final int META = 0xFF;
+	public static final int META_TEXT = 0x01;
+	public static final int META_END_OF_TRACK = 0x2F;
+	public static final int META_TEMPO = 0x51;
+
+	private final ByteBuffer data;
+	private final int start;
+	private final int end;
+	private final int trackIndex;
+	private int position;
+	private int runningStatus;
+
+	// merged cursors read the events of one cursor per track
+	private final SmfCursor[] sources;
+	private final boolean[] sourceHasEvent;
+
+	private long tick;
+	private int track;
+	private int status;
+	private int data1;
+	private int data2;
+	private int metaType;
+	private int dataOffset;
+	private int dataLength;
+
+	SmfCursor(ByteBuffer data, int start, int end, int trackIndex) {
+		this.data = data;
+		this.start = start;
+		this.end = end;
+		this.trackIndex = trackIndex;
+		this.sources = null;
+		this.sourceHasEvent = null;
+		rewind();
+	}
+
+	SmfCursor(ByteBuffer data, SmfCursor[] sources) {
+		this.data = data;
+		this.start = 0;
+		this.end = 0;
+		this.trackIndex = -1;
+		this.sources = sources;
+		this.sourceHasEvent = new boolean[sources.length];
+		rewind();
+	}
+
+	/**
+	 * Move back to before the first event.
+	 */
+	public void rewind() {
+		tick = 0;
+		status = 0;
+		if (sources == null) {
+			position = start;
+			runningStatus = 0;
+			track = trackIndex;
+		} else {
+			track = -1;
+			for (int i = 0; i < sources.length; i++) {
+				sources[i].rewind();
+				sourceHasEvent[i] = nextMergeable(sources[i]);
+			}
+		}
+	}
+
+	/**
+	 * Move to the next event. A merged cursor returns the events of all the tracks ordered by tick, events with the
+	 * same tick ordered by track, and skips the end of track events.
+	 *
+	 * @return true if there is a next event, false at the end
+	 * @throws IllegalStateException if the track data is malformed
+	 */
+	public boolean next() {
+		if (sources != null) {
+			return nextMerged();
+		}
+		if (position >= end) {
+			return false;
+		}
+		tick += readVariableLength();
+		int value = readByte();
+		if (value < 0x80) {
+			if (runningStatus == 0) {
+				throw malformed();
+			}
+			status = runningStatus;
+			data1 = value;
+			data2 = PackedMessage.getMessageLength(status) > 2 ? readByte() : 0;
+			return true;
+		}
+		status = value;
+		if (value < 0xF0) {
+			runningStatus = value;
+			data1 = 0;
+			data2 = 0;
+			int length = PackedMessage.getMessageLength(value);
+			if (length > 1) {
+				data1 = readByte();
+			}
+			if (length > 2) {
+				data2 = readByte();
+			}
+			return true;
+		}
+		// sysex and meta events cancel running status
+		runningStatus = 0;
+		data1 = 0;
+		data2 = 0;
+		if (value == META) {
+			metaType = readByte();
+		} else if (value != MidiEvent.SYSEX_START && value != MidiEvent.SYSEX_END) {
+			throw malformed();
+		}
+		dataLength = readVariableLength();
+		dataOffset = position;
+		position += dataLength;
+		if (position > end) {
+			throw malformed();
+		}
+		if (value == META && metaType == META_END_OF_TRACK) {
+			position = end;
+		}
+		return true;
+	}
+
+	private boolean nextMerged() {
+		int next = -1;
+		for (int i = 0; i < sources.length; i++) {
+			if (sourceHasEvent[i] && (next == -1 || sources[i].tick < sources[next].tick)) {
+				next = i;
+			}
+		}
+		if (next == -1) {
+			return false;
+		}
+		SmfCursor source = sources[next];
+		tick = source.tick;
+		track = source.track;
+		status = source.status;
+		data1 = source.data1;
+		data2 = source.data2;
+		metaType = source.metaType;
+		dataOffset = source.dataOffset;
+		dataLength = source.dataLength;
+		sourceHasEvent[next] = nextMergeable(source);
+		return true;
+	}
+
+	private static boolean nextMergeable(SmfCursor source) {
+		while (source.next()) {
+			if (!source.isEndOfTrack()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the tick of the current event, counted from the beginning of the track
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the index of the track of the current event
+	 */
+	public int getTrack() {
+		return track;
+	}
+
+	/**
+	 * @return the status byte of the current event: the status of a channel message including the channel, 0xF0 or
+	 * 0xF7 for sysex events, {@link #META} for meta events
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the first data byte of a channel message
+	 */
+	public int getData1() {
+		return data1;
+	}
+
+	/**
+	 * @return the second data byte of a channel message
+	 */
+	public int getData2() {
+		return data2;
+	}
+
+	/**
+	 * @return true if the current event is a meta event
+	 */
+	public boolean isMeta() {
+		return status == META;
+	}
+
+	/**
+	 * @return true if the current event is a sysex event, starting with either 0xF0 or 0xF7
+	 */
+	public boolean isSysex() {
+		return status == MidiEvent.SYSEX_START || status == MidiEvent.SYSEX_END;
+	}
+
+	/**
+	 * @return true if the current event is the end of track meta event
+	 */
+	public boolean isEndOfTrack() {
+		return status == META && metaType == META_END_OF_TRACK;
+	}
+
+	/**
+	 * @return the type of the current meta event
+	 */
+	public int getMetaType() {
+		return metaType;
+	}
+
+	/**
+	 * @return the tempo set by the current tempo meta event, in microseconds per quarter note, or -1 if the current
+	 * event is not a valid tempo event
+	 */
+	public int getTempo() {
+		if (status != META || metaType != META_TEMPO || dataLength < 3) {
+			return -1;
+		}
+		int tempo = (byteAt(dataOffset) << 16) | (byteAt(dataOffset + 1) << 8) | byteAt(dataOffset + 2);
+		return tempo == 0 ? -1 : tempo;
+	}
+
+	/**
+	 * @return the length of the payload of the current sysex or meta event
+	 */
+	public int getDataLength() {
+		return (status >= 0xF0) ? dataLength : 0;
+	}
+
+	/**
+	 * Copy the payload of the current sysex or meta event into an array.
+	 *
+	 * @param dest   the array to copy into, must have room for {@link #getDataLength()} bytes
+	 * @param offset the index of the first byte to write
+	 * @return the number of copied bytes
+	 */
+	public int getData(byte[] dest, int offset) {
+		int length = getDataLength();
+		for (int i = 0; i < length; i++) {
+			dest[offset + i] = data.get(dataOffset + i);
+		}
+		return length;
+	}
+
+	/**
+	 * @return a copy of the payload of the current sysex or meta event
+	 */
+	public byte[] getData() {
+		byte[] result = new byte[getDataLength()];
+		getData(result, 0);
+		return result;
+	}
+
+	/**
+	 * @return the current sysex event as a message that can be sent, starting with 0xF0, or the raw bytes of an
+	 * event starting with 0xF7, null if the current event is not a sysex event
+	 */
+	public byte[] getSysexMessage() {
+		if (status == MidiEvent.SYSEX_END) {
+			return getData();
+		}
+		if (status != MidiEvent.SYSEX_START) {
+			return null;
+		}
+		byte[] result = new byte[dataLength + 1];
+		result[0] = (byte) MidiEvent.SYSEX_START;
+		getData(result, 1);
+		return result;
+	}
+
+	private int byteAt(int index) {
+		return data.get(index) & 0xFF;
+	}
+
+	private int readByte() {
+		if (position >= end) {
+			throw malformed();
+		}
+		return data.get(position++) & 0xFF;
+	}
+
+	private int readVariableLength() {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = readByte();
+			value = (value << 7) | (b & 0x7F);
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw malformed();
+	}
+
+	private IllegalStateException malformed() {
+		return new IllegalStateException("Malformed data in track " + trackIndex + " at offset " + position);
+	}
+}
@@ -0,0 +1,83 @@
+package rwmidi;
+
+/**
+ * Plays the events of a Standard MIDI File, all tracks merged, with ticks converted to microseconds using the tempo
+ * map of the file. Meta events and sysex events starting with 0xF7 are skipped.
+ */
+public class SmfEventSource implements MidiEventSource {
+	private final SmfReader reader;
+	private final SmfCursor cursor;
+	private final MidiTempoMap tempoMap;
+	private long time = 0;
+	// true if seek() stopped on an event that next() has to return
+	private boolean buffered = false;
+
+	/**
+	 * Create a source reading a file.
+	 *
+	 * @param reader the file to read
+	 */
+	public SmfEventSource(SmfReader reader) {
+		this.reader = reader;
+		this.cursor = reader.merged();
+		this.tempoMap = reader.isSmpte() ? null : MidiTempoMap.read(reader);
+	}
+
+	/**
+	 * @return the tempo map of the file, null if the file uses SMPTE time division
+	 */
+	public MidiTempoMap getTempoMap() {
+		return tempoMap;
+	}
+
+	public boolean next() {
+		if (buffered) {
+			buffered = false;
+			return true;
+		}
+		while (cursor.next()) {
+			if (cursor.isMeta() || cursor.getStatus() == MidiEvent.SYSEX_END) {
+				continue;
+			}
+			long tick = cursor.getTick();
+			time = (tempoMap != null) ? tempoMap.toMicros(tick) : reader.ticksToNanos(tick, 0) / 1000;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the first event at or after a time. Standard MIDI Files have no index, so seeking reads the file from
+	 * the beginning.
+	 */
+	public void seek(long timeMicros) {
+		cursor.rewind();
+		buffered = false;
+		while (next()) {
+			if (time >= timeMicros) {
+				buffered = true;
+				return;
+			}
+		}
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public int getStatus() {
+		return cursor.getStatus();
+	}
+
+	public int getData1() {
+		return cursor.getData1();
+	}
+
+	public int getData2() {
+		return cursor.getData2();
+	}
+
+	public byte[] getSysexMessage() {
+		return cursor.getStatus() == MidiEvent.SYSEX_START ? cursor.getSysexMessage() : null;
+	}
+}
@@ -0,0 +1,229 @@
+package rwmidi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming reader for Standard MIDI Files of format 0 and 1. The file is memory mapped instead of being loaded into
+ * a javax.sound.midi.Sequence, and the events are decoded one at a time by cursors iterating over a single track or
+ * over all the tracks merged by tick, so that files of any size can be read without filling the heap.
+ */
+public class SmfReader implements Closeable {
+	/**
+	 * Tempo used until the first tempo event, in microseconds per quarter note (120 BPM).
+	 */
+	public static final int DEFAULT_TEMPO = 500000;
+	private static final long PLAY_LOOKAHEAD_NANOS = 100000000L;
+
+	private final RandomAccessFile file;
+	private final ByteBuffer data;
+	private final int format;
+	private final int division;
+	private final int[] trackStarts;
+	private final int[] trackEnds;
+
+	/**
+	 * Open a file by memory mapping it.
+	 *
+	 * @param file the file to read
+	 * @throws IOException if the file can't be read or is not a Standard MIDI File
+	 */
+	public SmfReader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + file);
+			}
+			this.file = raf;
+			this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		int[] header = readHeader(data);
+		format = header[0];
+		division = header[1];
+		trackStarts = new int[header[2]];
+		trackEnds = new int[header[2]];
+		findTracks();
+	}
+
+	/**
+	 * Read a file already in memory. The buffer is not copied and must not be modified while reading.
+	 *
+	 * @param buffer the content of the file, from its position to its limit
+	 * @throws IOException if the buffer doesn't contain a Standard MIDI File
+	 */
+	public SmfReader(ByteBuffer buffer) throws IOException {
+		this.file = null;
+		this.data = buffer.slice();
+		int[] header = readHeader(data);
+		format = header[0];
+		division = header[1];
+		trackStarts = new int[header[2]];
+		trackEnds = new int[header[2]];
+		findTracks();
+	}
+
+	private static int[] readHeader(ByteBuffer data) throws IOException {
+		if (data.limit() < 14 || data.getInt(0) != 0x4D546864) {
+			throw new IOException("Not a Standard MIDI File");
+		}
+		int format = data.getShort(8) & 0xFFFF;
+		if (format > 1) {
+			throw new IOException("Unsupported Standard MIDI File format: " + format);
+		}
+		int division = data.getShort(12) & 0xFFFF;
+		if ((division & 0x7FFF) == 0 || ((division & 0x8000) != 0 && (division & 0xFF) == 0)) {
+			throw new IOException("Invalid time division: " + division);
+		}
+		return new int[]{format, data.getShort(12) & 0xFFFF, data.getShort(10) & 0xFFFF};
+	}
+
+	private void findTracks() throws IOException {
+		int position = 8 + data.getInt(4);
+		int count = 0;
+		while (count < trackStarts.length && position + 8 <= data.limit()) {
+			int id = data.getInt(position);
+			int length = data.getInt(position + 4);
+			if (length < 0 || position + 8 + length > data.limit()) {
+				throw new IOException("Truncated chunk at offset " + position);
+			}
+			// chunks of unknown type are skipped
+			if (id == 0x4D54726B) {
+				trackStarts[count] = position + 8;
+				trackEnds[count] = position + 8 + length;
+				count++;
+			}
+			position += 8 + length;
+		}
+		if (count < trackStarts.length) {
+			throw new IOException("Expected " + trackStarts.length + " tracks, found " + count);
+		}
+	}
+
+	/**
+	 * @return the format of the file, 0 or 1
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the number of tracks
+	 */
+	public int getTrackCount() {
+		return trackStarts.length;
+	}
+
+	/**
+	 * @return the division field of the header: the number of ticks per quarter note, or if the top bit is set, the
+	 * negative SMPTE frame rate in the upper byte and the number of ticks per frame in the lower byte
+	 */
+	public int getDivision() {
+		return division;
+	}
+
+	/**
+	 * @return true if ticks are a fraction of SMPTE frames instead of quarter notes
+	 */
+	public boolean isSmpte() {
+		return (division & 0x8000) != 0;
+	}
+
+	/**
+	 * Get a cursor on the events of a track.
+	 *
+	 * @param index the index of the track
+	 * @return a new cursor, positioned before the first event
+	 */
+	public SmfCursor track(int index) {
+		return new SmfCursor(data, trackStarts[index], trackEnds[index], index);
+	}
+
+	/**
+	 * Get a cursor on the events of all the tracks, ordered by tick.
+	 *
+	 * @return a new cursor, positioned before the first event
+	 */
+	public SmfCursor merged() {
+		SmfCursor[] sources = new SmfCursor[trackStarts.length];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = track(i);
+		}
+		return new SmfCursor(data, sources);
+	}
+
+	/**
+	 * Convert a duration in ticks to nanoseconds.
+	 *
+	 * @param ticks the number of ticks
+	 * @param tempo the tempo in microseconds per quarter note, ignored for SMPTE divisions
+	 * @return the duration in nanoseconds
+	 */
+	public long ticksToNanos(long ticks, int tempo) {
+		if (isSmpte()) {
+			int framesPerSecond = -(byte) (division >> 8);
+			double frameRate = (framesPerSecond == 29) ? 29.97 : framesPerSecond;
+			return (long) (ticks * 1000000000.0 / (frameRate * (division & 0xFF)));
+		}
+		return (long) (ticks * 1000.0 * tempo / division);
+	}
+
+	/**
+	 * Play the file on an output, following the tempo events, and return once the last event has been sent. The
+	 * events are scheduled on the scheduler of the output shortly before they are due. Sysex events starting with
+	 * 0xF7 and meta events other than tempo are not sent.
+	 *
+	 * @param output the output to send the events to
+	 * @throws InterruptedException if the thread is interrupted while playing
+	 */
+	public void play(MidiOutput output) throws InterruptedException {
+		MidiScheduler scheduler = output.getScheduler();
+		SmfCursor cursor = merged();
+		long start = System.nanoTime() + PLAY_LOOKAHEAD_NANOS;
+		long time = start;
+		long lastTick = 0;
+		int tempo = DEFAULT_TEMPO;
+		while (cursor.next()) {
+			time += ticksToNanos(cursor.getTick() - lastTick, tempo);
+			lastTick = cursor.getTick();
+			if (cursor.isMeta()) {
+				// malformed tempo events return -1 and are ignored
+				if (cursor.getTempo() > 0) {
+					tempo = cursor.getTempo();
+				}
+				continue;
+			}
+			sleepUntil(time - PLAY_LOOKAHEAD_NANOS);
+			if (cursor.getStatus() == MidiEvent.SYSEX_START) {
+				scheduler.scheduleSysex(time, cursor.getSysexMessage());
+			} else if (!cursor.isSysex()) {
+				scheduler.schedule(time, cursor.getStatus(), cursor.getData1(), cursor.getData2());
+			}
+		}
+		sleepUntil(time);
+	}
+
+	private static void sleepUntil(long nanoTime) throws InterruptedException {
+		long delay;
+		while ((delay = nanoTime - System.nanoTime()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(delay);
+		}
+	}
+
+	/**
+	 * Close the file. Cursors must not be used anymore after closing.
+	 */
+	public void close() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+	}
+}
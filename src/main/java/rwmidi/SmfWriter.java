@@ -0,0 +1,305 @@
+package rwmidi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming writer for Standard MIDI Files of format 0. Events are encoded with running status into a fixed size
+ * buffer, which is written to the file whenever it is full, so that recordings of any length only use a bounded
+ * amount of memory. The length of the track is written into the file on {@link #close()}.
+ * <p/>
+ * The writer can record the traffic of MidiInputs using {@link #record(MidiInput)}. Recorded messages are stamped
+ * with the time at which they are received, relative to the first recorded message, and converted to ticks at a tempo
+ * of 120 BPM. Only channel messages and sysex messages are recorded, system common and realtime messages can't be
+ * stored in a Standard MIDI File.
+ * <p/>
+ * A gap between two events longer than the largest delta time of the format (0x0FFFFFFF ticks) is split with empty
+ * text events.
+ */
+public class SmfWriter implements ShortMessageListener, SysexListener, Closeable {
+	public static final int DEFAULT_DIVISION = 480;
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	private static final int TRACK_LENGTH_OFFSET = 18;
+	private static final int MAX_DELTA = 0x0FFFFFFF;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int division;
+	private final List<MidiInput> inputs = new ArrayList<MidiInput>();
+
+	private long trackLength = 0;
+	private long lastTick = 0;
+	private int runningStatus = 0;
+	private long startTime = -1;
+	private boolean failed = false;
+	private boolean closed = false;
+
+	/**
+	 * Create a file with the default division of 480 ticks per quarter note.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file can't be written
+	 */
+	public SmfWriter(File file) throws IOException {
+		this(file, DEFAULT_DIVISION, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a file.
+	 *
+	 * @param file       the file to write, replaced if it exists
+	 * @param division   the number of ticks per quarter note
+	 * @param bufferSize the size of the buffer holding events before they are written to the file
+	 * @throws IOException if the file can't be written
+	 */
+	public SmfWriter(File file, int division, int bufferSize) throws IOException {
+		if (division <= 0 || division > 0x7FFF) {
+			throw new IllegalArgumentException("Division must be between 1 and 32767, got " + division);
+		}
+		if (bufferSize < 32) {
+			throw new IllegalArgumentException("Buffer size must be at least 32, got " + bufferSize);
+		}
+		this.division = division;
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		buffer.putInt(0x4D546864).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) division);
+		buffer.putInt(0x4D54726B).putInt(0);
+		// initial tempo of 120 BPM
+		int start = buffer.position();
+		buffer.put((byte) 0).put((byte) SmfCursor.META).put((byte) SmfCursor.META_TEMPO).put((byte) 3);
+		buffer.put((byte) 0x07).put((byte) 0xA1).put((byte) 0x20);
+		trackLength += buffer.position() - start;
+	}
+
+	/**
+	 * Record all the messages received by an input, until the writer is closed.
+	 *
+	 * @param input the input to record
+	 */
+	public synchronized void record(MidiInput input) {
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+		inputs.add(input);
+		input.addShortMessageListener(this);
+		input.addSysexListener(this);
+	}
+
+	/**
+	 * @return the division of the file, in ticks per quarter note
+	 */
+	public int getDivision() {
+		return division;
+	}
+
+	/**
+	 * Write a channel message.
+	 *
+	 * @param tick   the tick of the message, not before the tick of the previous message
+	 * @param status status byte of the message, including the channel
+	 * @param data1  first data byte
+	 * @param data2  second data byte
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void writeShortMessage(long tick, int status, int data1, int data2) throws IOException {
+		if (status >= 0xF0 || !PackedMessage.isValid(status, data1, data2)) {
+			throw new IllegalArgumentException("Invalid channel message: " + status + ", " + data1 + ", " + data2);
+		}
+		checkOpen();
+		int length = PackedMessage.getMessageLength(status);
+		padGap(tick);
+		ensureRoom(4 + length);
+		int start = buffer.position();
+		putVariableLength(delta(tick));
+		if (status != runningStatus) {
+			buffer.put((byte) status);
+			runningStatus = status;
+		}
+		if (length > 1) {
+			buffer.put((byte) data1);
+		}
+		if (length > 2) {
+			buffer.put((byte) data2);
+		}
+		trackLength += buffer.position() - start;
+	}
+
+	/**
+	 * Write a sysex message.
+	 *
+	 * @param tick   the tick of the message, not before the tick of the previous message
+	 * @param data   array containing the message, starting with 0xF0 and ending with 0xF7
+	 * @param offset index of the first byte of the message
+	 * @param length length of the message
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void writeSysex(long tick, byte[] data, int offset, int length) throws IOException {
+		if (length < 2 || (data[offset] & 0xFF) != MidiEvent.SYSEX_START) {
+			throw new IllegalArgumentException("Sysex message must start with 0xF0");
+		}
+		checkOpen();
+		padGap(tick);
+		ensureRoom(9);
+		int start = buffer.position();
+		putVariableLength(delta(tick));
+		buffer.put((byte) MidiEvent.SYSEX_START);
+		putVariableLength(length - 1);
+		trackLength += buffer.position() - start + length - 1;
+		if (buffer.remaining() < length - 1) {
+			flush();
+			channel.write(ByteBuffer.wrap(data, offset + 1, length - 1));
+		} else {
+			buffer.put(data, offset + 1, length - 1);
+		}
+		runningStatus = 0;
+	}
+
+	/**
+	 * Write a tempo change.
+	 *
+	 * @param tick  the tick of the tempo change, not before the tick of the previous message
+	 * @param tempo the new tempo in microseconds per quarter note, between 1 and 0xFFFFFF
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void writeTempo(long tick, int tempo) throws IOException {
+		if (tempo <= 0 || tempo > 0xFFFFFF) {
+			throw new IllegalArgumentException("Tempo must be between 1 and 16777215 microseconds, got " + tempo);
+		}
+		checkOpen();
+		padGap(tick);
+		ensureRoom(10);
+		int start = buffer.position();
+		putVariableLength(delta(tick));
+		buffer.put((byte) SmfCursor.META).put((byte) SmfCursor.META_TEMPO).put((byte) 3);
+		buffer.put((byte) (tempo >> 16)).put((byte) (tempo >> 8)).put((byte) tempo);
+		trackLength += buffer.position() - start;
+		// meta events cancel running status
+		runningStatus = 0;
+	}
+
+	public synchronized void onShortMessage(int status, int data1, int data2, long timeStamp) {
+		if (status >= 0xF0 || failed || closed) {
+			return;
+		}
+		try {
+			writeShortMessage(currentTick(), status, data1, data2);
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+	}
+
+	public synchronized void onSysex(byte[] data, int length, long timeStamp) {
+		if (failed || closed) {
+			return;
+		}
+		try {
+			writeSysex(currentTick(), data, 0, length);
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+	}
+
+	/**
+	 * Stop recording the inputs, write the end of the track and close the file.
+	 *
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		for (MidiInput input : inputs) {
+			input.removeShortMessageListener(this);
+			input.removeSysexListener(this);
+		}
+		inputs.clear();
+		try {
+			ensureRoom(4);
+			buffer.put((byte) 0).put((byte) SmfCursor.META).put((byte) SmfCursor.META_END_OF_TRACK).put((byte) 0);
+			trackLength += 4;
+			flush();
+			if (trackLength > 0xFFFFFFFFL) {
+				throw new IOException("Track too long for a Standard MIDI File: " + trackLength + " bytes");
+			}
+			ByteBuffer length = ByteBuffer.allocate(4);
+			length.putInt(0, (int) trackLength);
+			channel.write(length, TRACK_LENGTH_OFFSET);
+		} finally {
+			closed = true;
+			file.close();
+		}
+	}
+
+	private long currentTick() {
+		long now = System.nanoTime();
+		if (startTime == -1) {
+			startTime = now;
+		}
+		return (now - startTime) * division / (SmfReader.DEFAULT_TEMPO * 1000L);
+	}
+
+	private int delta(long tick) {
+		long delta = Math.max(tick - lastTick, 0);
+		lastTick = Math.max(tick, lastTick);
+		return (int) delta;
+	}
+
+	/**
+	 * Write empty text events until the delta time of an event at the given tick fits into a variable length number.
+	 */
+	private void padGap(long tick) throws IOException {
+		while (tick - lastTick > MAX_DELTA) {
+			ensureRoom(7);
+			putVariableLength(MAX_DELTA);
+			buffer.put((byte) SmfCursor.META).put((byte) SmfCursor.META_TEXT).put((byte) 0);
+			lastTick += MAX_DELTA;
+			trackLength += 7;
+			// meta events cancel running status
+			runningStatus = 0;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+	}
+
+	private void ensureRoom(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void putVariableLength(int value) {
+		if (value >= 1 << 21) {
+			buffer.put((byte) (0x80 | (value >> 21)));
+		}
+		if (value >= 1 << 14) {
+			buffer.put((byte) (0x80 | ((value >> 14) & 0x7F)));
+		}
+		if (value >= 1 << 7) {
+			buffer.put((byte) (0x80 | ((value >> 7) & 0x7F)));
+		}
+		buffer.put((byte) (value & 0x7F));
+	}
+}
@@ -0,0 +1,45 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a MIDI Song Position Pointer message. You can access the position, counted in MIDI beats (sixteenth
+ * notes) since the start of the song, using {@Link SongPosition-getPosition}.
+ */
+public class SongPosition extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create a Song Position Pointer message.
+	 *
+	 * @param position the position in MIDI beats, from 0 to 16383
+	 */
+	public SongPosition(final int position) {
+		super(SONG_POSITION, position & 0x7F, (position >> 7) & 0x7F);
+	}
+
+	/**
+	 * @return the position in MIDI beats (sixteenth notes) since the start of the song
+	 */
+	public int getPosition() {
+		return getData1() | (getData2() << 7);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof SongPosition)) {
+			return false;
+		}
+		return getPosition() == ((SongPosition) obj).getPosition();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder().append(getPosition()).build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.SongPosition " + getPosition();
+	}
+}
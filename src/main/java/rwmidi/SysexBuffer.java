@@ -0,0 +1,138 @@
+package rwmidi;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used to reassemble sysex messages that arrive in several packets. The buffer is kept and
+ * reused for the following messages, and never grows beyond the configured maximum size.
+ */
+final class SysexBuffer {
+	static final int DEFAULT_MAX_SIZE = 1 << 20;
+	private static final int INITIAL_CAPACITY = 256;
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private int length = 0;
+	private boolean active = false;
+	private boolean overflowed = false;
+
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+	private volatile SysexOverflowPolicy overflowPolicy = SysexOverflowPolicy.DISCARD;
+
+	/**
+	 * Start a new message, discarding any incomplete one.
+	 */
+	void start() {
+		length = 0;
+		overflowed = false;
+		active = true;
+		buffer[length++] = (byte) MidiEvent.SYSEX_START;
+	}
+
+	/**
+	 * Append the bytes of a packet to the current message. The 0xF7 end byte must not be part of the bytes, the
+	 * message is terminated using {@link #finish()}.
+	 */
+	void append(final byte[] data, final int offset, final int count) {
+		if (!active || count <= 0) {
+			return;
+		}
+		// one byte is always kept free for the end byte
+		int room = maxSize - 1 - length;
+		int n = count;
+		if (n > room) {
+			overflowed = true;
+			n = Math.max(room, 0);
+		}
+		ensureCapacity(length + n + 1);
+		System.arraycopy(data, offset, buffer, length, n);
+		length += n;
+	}
+
+	/**
+	 * Append a single byte to the current message.
+	 */
+	void append(final byte b) {
+		if (!active) {
+			return;
+		}
+		if (length >= maxSize - 1) {
+			overflowed = true;
+			return;
+		}
+		ensureCapacity(length + 2);
+		buffer[length++] = b;
+	}
+
+	/**
+	 * Terminate the current message with 0xF7.
+	 *
+	 * @return true if the message is complete and should be delivered, false if it has been discarded
+	 */
+	boolean finish() {
+		if (!active) {
+			return false;
+		}
+		active = false;
+		if (overflowed && overflowPolicy == SysexOverflowPolicy.DISCARD) {
+			length = 0;
+			return false;
+		}
+		buffer[length++] = (byte) MidiEvent.SYSEX_END;
+		return true;
+	}
+
+	/**
+	 * Discard the current message.
+	 */
+	void reset() {
+		active = false;
+		length = 0;
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return a copy of the last completed message
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	void setMaxSize(final int maxSize) {
+		if (maxSize < 2) {
+			throw new IllegalArgumentException("Maximum sysex size has to be at least 2 bytes: " + maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	SysexOverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	void setOverflowPolicy(final SysexOverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Sysex overflow policy must not be null");
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, Math.min(buffer.length * 2, maxSize)));
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package rwmidi;
+
+/**
+ * Listener receiving complete sysex messages as raw bytes. The bytes are handed out from the reassembly buffer of
+ * the input, so no copy is made for the listener. Register it using {@link MidiInput#addSysexListener(SysexListener)}.
+ */
+public interface SysexListener {
+	/**
+	 * Called for every complete sysex message received on the input. The array is reused for the next message, so
+	 * it is only valid during the call and has to be copied if it is kept.
+	 *
+	 * @param data      buffer containing the message, starting with 0xF0 and ending with 0xF7
+	 * @param length    number of valid bytes in the buffer
+	 * @param timeStamp the time stamp of the last packet of the message in microseconds, -1 if not supported
+	 */
+	void onSysex(byte[] data, int length, long timeStamp);
+}
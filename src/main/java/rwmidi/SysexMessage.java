@@ -1,7 +1,5 @@
 package rwmidi;
 
-import javax.xml.bind.DatatypeConverter;
-
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -39,6 +37,20 @@ public class SysexMessage extends MidiEvent {
 
 	@Override
 	public String toString() {
-		return "Sysex Message: \n" + DatatypeConverter.printHexBinary(getMessage());
+		return "Sysex Message: \n" + toHex(getMessage());
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * @return the bytes as an upper case hex string without separators
+	 */
+	static String toHex(final byte[] data) {
+		char[] result = new char[data.length * 2];
+		for (int i = 0; i < data.length; i++) {
+			result[i * 2] = HEX_DIGITS[(data[i] >> 4) & 0x0F];
+			result[i * 2 + 1] = HEX_DIGITS[data[i] & 0x0F];
+		}
+		return new String(result);
 	}
 }
@@ -0,0 +1,16 @@
+package rwmidi;
+
+/**
+ * Describes what a {@link MidiInput} does with a sysex message that is larger than its maximum sysex size
+ * (see {@link MidiInput#setMaxSysexSize(int)}).
+ */
+public enum SysexOverflowPolicy {
+	/**
+	 * Drop the whole message.
+	 */
+	DISCARD,
+	/**
+	 * Deliver the beginning of the message, cut to the maximum size and terminated with 0xF7.
+	 */
+	TRUNCATE
+}
@@ -0,0 +1,62 @@
+package rwmidi;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents a MIDI Time Code Quarter Frame message. Each message carries one nibble of the current SMPTE time, the
+ * piece being given by {@Link TimeCode-getType} (0 - 7: frames, seconds, minutes and hours, low and high nibble)
+ * and the nibble by {@Link TimeCode-getValue}.
+ */
+public class TimeCode extends MidiEvent {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create a Time Code Quarter Frame message.
+	 *
+	 * @param type  the piece of the time code, from 0 to 7
+	 * @param value the value of the piece, from 0 to 15
+	 */
+	public TimeCode(final int type, final int value) {
+		super(TIME_CODE, ((type & 0x07) << 4) | (value & 0x0F), 0);
+	}
+
+	/**
+	 * @return the piece of the time code carried by this message, from 0 to 7
+	 */
+	public int getType() {
+		return getData1() >> 4;
+	}
+
+	/**
+	 * @return the value of the piece, from 0 to 15
+	 */
+	public int getValue() {
+		return getData1() & 0x0F;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (null == obj || !(obj instanceof TimeCode)) {
+			return false;
+		}
+		TimeCode other = (TimeCode) obj;
+		return new EqualsBuilder()
+				.append(getType(), other.getType())
+				.append(getValue(), other.getValue())
+				.build();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(getType())
+				.append(getValue())
+				.build();
+	}
+
+	@Override
+	public String toString() {
+		return "rwmidi.TimeCode type: " + getType() + " value: " + getValue();
+	}
+}
@@ -0,0 +1,162 @@
+package rwmidi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records messages with {@link MidiRecorder} into small segments and reads them back with {@link MidiLogReader}.
+ */
+public class MidiRecorderRoundTripTest {
+	private static final String NAME = "test";
+	private static final int SEGMENT_SIZE = 1024;
+	private static final int MESSAGES = 2000;
+	private static final byte[] SYSEX = {(byte) 0xF0, 0x7D, 0x01, 0x02, 0x03, (byte) 0xF7};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private int segmentCount;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = folder.newFolder();
+		MidiRecorder recorder = new MidiRecorder(directory, NAME, SEGMENT_SIZE);
+		try {
+			for (int i = 0; i < MESSAGES; i++) {
+				// the message number in the data bytes, so that every record can be identified
+				recorder.onShortMessage(0x90, i & 0x7F, i >> 7, -1);
+				if (i % 100 == 0) {
+					recorder.onSysex(SYSEX, SYSEX.length, -1);
+				}
+				if (i % 50 == 0) {
+					// spread the records over time, for seeking
+					Thread.sleep(1);
+				}
+			}
+			segmentCount = recorder.getSegmentCount();
+		} finally {
+			recorder.close();
+		}
+		assertTrue("Expected several segments, got " + segmentCount, segmentCount > 5);
+	}
+
+	@Test
+	public void readsAllRecordsAcrossSegments() throws IOException {
+		MidiLogReader reader = new MidiLogReader(directory, NAME);
+		try {
+			assertEquals(segmentCount, reader.getSegmentCount());
+			assertFalse(MidiRecorder.segmentFile(directory, NAME, segmentCount).exists());
+			assertRecords(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void seeksThroughTheIndex() throws IOException {
+		MidiLogReader reader = new MidiLogReader(directory, NAME);
+		try {
+			long[] times = new long[MESSAGES];
+			int count = 0;
+			while (reader.next()) {
+				if (!reader.isSysex()) {
+					times[count++] = reader.getTime();
+				}
+			}
+			assertEquals(MESSAGES, count);
+			for (int i = 0; i < segmentCount; i++) {
+				assertTrue(MidiRecorder.indexFile(directory, NAME, i).length() >= MidiRecorder.INDEX_ENTRY_SIZE);
+			}
+			for (int i = MESSAGES - 1; i >= 0; i -= 37) {
+				reader.seek(times[i]);
+				assertTrue(reader.next());
+				assertEquals(times[i], reader.getTime());
+				if (reader.isSysex()) {
+					assertTrue(reader.next());
+				}
+				// the first message recorded at that time
+				int first = i;
+				while (first > 0 && times[first - 1] == times[i]) {
+					first--;
+				}
+				assertEquals(first, reader.getData1() | (reader.getData2() << 7));
+			}
+			reader.seek(times[MESSAGES - 1] + 1);
+			assertFalse(reader.next());
+			reader.seek(0);
+			assertTrue(reader.next());
+			assertEquals(0, reader.getData1());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void ignoresTrailingPreallocatedSegment() throws IOException {
+		// left over by a recorder that stopped before using the segment it created in advance
+		RandomAccessFile file = new RandomAccessFile(MidiRecorder.segmentFile(directory, NAME, segmentCount), "rw");
+		try {
+			file.setLength(SEGMENT_SIZE);
+		} finally {
+			file.close();
+		}
+		MidiLogReader reader = new MidiLogReader(directory, NAME);
+		try {
+			assertEquals(segmentCount, reader.getSegmentCount());
+			assertRecords(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void ignoresZeroFilledTail() throws IOException {
+		// segments the recorder couldn't truncate after unmapping them
+		for (int i = 0; i < segmentCount; i++) {
+			RandomAccessFile file = new RandomAccessFile(MidiRecorder.segmentFile(directory, NAME, i), "rw");
+			try {
+				file.setLength(SEGMENT_SIZE);
+			} finally {
+				file.close();
+			}
+		}
+		MidiLogReader reader = new MidiLogReader(directory, NAME);
+		try {
+			assertRecords(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void assertRecords(MidiLogReader reader) {
+		long time = 0;
+		for (int i = 0; i < MESSAGES; i++) {
+			assertTrue(reader.next());
+			assertFalse(reader.isSysex());
+			assertEquals(0x90, reader.getStatus());
+			assertEquals(i, reader.getData1() | (reader.getData2() << 7));
+			assertTrue(reader.getTime() >= time);
+			time = reader.getTime();
+			if (i % 100 == 0) {
+				assertTrue(reader.next());
+				assertTrue(reader.isSysex());
+				assertArrayEquals(SYSEX, reader.getSysexMessage());
+				assertTrue(reader.getTime() >= time);
+				time = reader.getTime();
+			}
+		}
+		assertFalse(reader.next());
+	}
+}
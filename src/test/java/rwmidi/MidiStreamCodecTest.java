@@ -0,0 +1,140 @@
+package rwmidi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the byte streams written by {@link MidiStreamEncoder} and the messages parsed by {@link MidiStreamParser}.
+ */
+public class MidiStreamCodecTest {
+
+	@Test
+	public void encoderOmitsRepeatedStatusBytes() {
+		MidiStreamEncoder encoder = new MidiStreamEncoder(ByteBuffer.allocate(64));
+		assertTrue(encoder.encode(0x90, 60, 100));
+		assertTrue(encoder.encode(0x90, 62, 100));
+		// realtime messages don't cancel running status
+		assertTrue(encoder.encode(0xF8, 0, 0));
+		assertTrue(encoder.encode(0x90, 64, 100));
+		assertTrue(encoder.encode(0x80, 60, 0));
+		// system common messages do
+		assertTrue(encoder.encode(0xF1, 0x12, 0));
+		assertTrue(encoder.encode(0x80, 62, 0));
+		assertArrayEquals(bytes(0x90, 60, 100, 62, 100, 0xF8, 64, 100, 0x80, 60, 0, 0xF1, 0x12, 0x80, 62, 0),
+				written(encoder));
+	}
+
+	@Test
+	public void encoderRejectsInvalidMessages() {
+		MidiStreamEncoder encoder = new MidiStreamEncoder(ByteBuffer.allocate(64));
+		assertFalse(encoder.encode(0xF4, 0, 0));
+		assertFalse(encoder.encode(0xF5, 0, 0));
+		assertFalse(encoder.encode(0xF0, 0, 0));
+		assertFalse(encoder.encode(0x90, 128, 0));
+		assertEquals(0, written(encoder).length);
+		assertFalse(PackedMessage.isValid(0xF4, 0, 0));
+		assertFalse(PackedMessage.isValid(0xF5, 0, 0));
+		assertTrue(PackedMessage.isValid(0xF6, 0, 0));
+	}
+
+	@Test
+	public void parserHandlesRunningStatus() {
+		Collector collector = parse(bytes(0x90, 60, 100, 62, 100, 0xB3, 7, 127, 7, 0));
+		assertEquals(Arrays.asList("90 60 100", "90 62 100", "B3 7 127", "B3 7 0"), collector.messages);
+	}
+
+	@Test
+	public void parserPassesRealtimeBytesInsideMessages() {
+		Collector collector = parse(bytes(0x90, 0xF8, 60, 0xFE, 100, 62, 0xFA, 100));
+		assertEquals(Arrays.asList("F8 0 0", "FE 0 0", "90 60 100", "FA 0 0", "90 62 100"), collector.messages);
+	}
+
+	@Test
+	public void parserAssemblesSysex() {
+		Collector collector = parse(bytes(0xF0, 0x7E, 0xF8, 0x01, 0x02, 0xF7, 0x90, 60, 100));
+		assertEquals(Arrays.asList("F8 0 0", "F0 7E 01 02 F7", "90 60 100"), collector.messages);
+	}
+
+	@Test
+	public void parserDiscardsInterruptedSysex() {
+		Collector collector = parse(bytes(0xF0, 0x7E, 0x01, 0x90, 60, 100, 0xF7));
+		assertEquals(Arrays.asList("90 60 100"), collector.messages);
+	}
+
+	@Test
+	public void parserDiscardsUndefinedSystemCommonMessages() {
+		Collector collector = parse(bytes(0x90, 60, 100, 0xF4, 62, 100, 0x90, 64, 100, 0xF5, 1, 0xF0, 0x01, 0xF4,
+				0xF7, 0xF6));
+		assertEquals(Arrays.asList("90 60 100", "90 64 100", "F6 0 0"), collector.messages);
+	}
+
+	@Test
+	public void encodedStreamParsesBackWhateverTheSplit() {
+		MidiStreamEncoder encoder = new MidiStreamEncoder(ByteBuffer.allocate(256));
+		encoder.encode(0x90, 60, 100);
+		encoder.encode(0x90, 62, 100);
+		encoder.encode(0xF8, 0, 0);
+		encoder.encode(0x90, 60, 0);
+		encoder.encode(0xE1, 0, 64);
+		encoder.encode(0xC2, 5, 0);
+		encoder.encode(0xC2, 6, 0);
+		byte[] sysex = bytes(0xF0, 0x43, 0x10, 0x4C, 0x00, 0x00, 0x7E, 0x00, 0xF7);
+		encoder.encodeSysex(sysex, 0, sysex.length);
+		encoder.encode(0xF2, 0x10, 0x02);
+		encoder.encode(0x90, 60, 100);
+		byte[] stream = written(encoder);
+		List<String> expected = Arrays.asList("90 60 100", "90 62 100", "F8 0 0", "90 60 0", "E1 0 64", "C2 5 0",
+				"C2 6 0", "F0 43 10 4C 00 00 7E 00 F7", "F2 16 2", "90 60 100");
+		for (int split = 0; split <= stream.length; split++) {
+			Collector collector = new Collector();
+			MidiStreamParser parser = new MidiStreamParser(collector, collector);
+			parser.parse(stream, 0, split, -1);
+			parser.parse(ByteBuffer.wrap(stream, split, stream.length - split), -1);
+			assertEquals("Split at " + split, expected, collector.messages);
+		}
+	}
+
+	private static Collector parse(byte[] stream) {
+		Collector collector = new Collector();
+		new MidiStreamParser(collector, collector).parse(stream, 0, stream.length, -1);
+		return collector;
+	}
+
+	private static byte[] written(MidiStreamEncoder encoder) {
+		ByteBuffer buffer = encoder.getBuffer();
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte) values[i];
+		}
+		return result;
+	}
+
+	private static final class Collector implements ShortMessageListener, SysexListener {
+		final List<String> messages = new ArrayList<String>();
+
+		public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+			messages.add(String.format("%02X %d %d", status, data1, data2));
+		}
+
+		public void onSysex(byte[] data, int length, long timeStamp) {
+			StringBuilder message = new StringBuilder();
+			for (int i = 0; i < length; i++) {
+				message.append(i == 0 ? "" : " ").append(String.format("%02X", data[i] & 0xFF));
+			}
+			messages.add(message.toString());
+		}
+	}
+}
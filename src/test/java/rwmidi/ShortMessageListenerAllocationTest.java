@@ -0,0 +1,78 @@
+package rwmidi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that short messages go from an output through a loopback to the {@link ShortMessageListener}s of an input
+ * without allocating, by counting the bytes allocated by the sending thread.
+ */
+public class ShortMessageListenerAllocationTest {
+	private static final int WARMUP = 200000;
+	private static final int MESSAGES = 100000;
+
+	private MidiLoopback loopback;
+	private MidiInput input;
+	private MidiOutput output;
+	private final CountingListener listener = new CountingListener();
+
+	@Before
+	public void setUp() {
+		loopback = RWMidi.createLoopback("allocation test");
+		input = loopback.createInput();
+		output = loopback.createOutput();
+		output.setReuseMessages(true);
+		input.addShortMessageListener(listener);
+	}
+
+	@After
+	public void tearDown() {
+		input.closeMidi();
+		output.closeMidi();
+		RWMidi.removeLoopback(loopback);
+	}
+
+	@Test
+	public void sendDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads = threadMXBean();
+		final long thread = Thread.currentThread().getId();
+		sendMessages(WARMUP);
+		final long before = threads.getThreadAllocatedBytes(thread);
+		sendMessages(MESSAGES);
+		final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertEquals(WARMUP + MESSAGES, listener.count);
+		// less than a byte per message: nothing is allocated per message, whatever the measurement itself costs
+		assertTrue("Allocated " + allocated + " bytes for " + MESSAGES + " messages", allocated < MESSAGES);
+	}
+
+	private void sendMessages(final int count) {
+		for (int i = 0; i < count; i++) {
+			output.sendController(i & 0x0F, 7, i & 0x7F);
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(result.isThreadAllocatedMemorySupported());
+		result.setThreadAllocatedMemoryEnabled(true);
+		return result;
+	}
+
+	private static final class CountingListener implements ShortMessageListener {
+		long count = 0;
+
+		public void onShortMessage(int status, int data1, int data2, long timeStamp) {
+			count++;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package rwmidi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes Standard MIDI Files with {@link SmfWriter} and reads them back with {@link SmfReader} and
+ * {@link SmfCursor}.
+ */
+public class SmfRoundTripTest {
+	private static final int MAX_DELTA = 0x0FFFFFFF;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripWithRunningStatusAndTempoChange() throws IOException {
+		File file = folder.newFile("events.mid");
+		SmfWriter writer = new SmfWriter(file);
+		writer.writeShortMessage(0, 0x90, 60, 100);
+		writer.writeShortMessage(10, 0x90, 64, 100);
+		writer.writeShortMessage(20, 0x90, 67, 100);
+		writer.writeShortMessage(30, 0x80, 60, 0);
+		writer.writeTempo(40, 250000);
+		writer.writeShortMessage(50, 0x80, 64, 0);
+		writer.writeShortMessage(60, 0xC3, 5, 0);
+		writer.close();
+
+		// header 14, track header 8, initial tempo 7, note on 4 + 3 + 3 with running status, note off 4,
+		// tempo 7, note off 4 (a meta event cancels running status), program change 3, end of track 4
+		assertEquals(14 + 8 + 7 + 10 + 4 + 7 + 4 + 3 + 4, file.length());
+
+		SmfReader reader = new SmfReader(file);
+		try {
+			assertEquals(0, reader.getFormat());
+			assertEquals(1, reader.getTrackCount());
+			assertEquals(SmfWriter.DEFAULT_DIVISION, reader.getDivision());
+			SmfCursor cursor = reader.track(0);
+			assertTempo(cursor, 0, SmfReader.DEFAULT_TEMPO);
+			assertShortMessage(cursor, 0, 0x90, 60, 100);
+			assertShortMessage(cursor, 10, 0x90, 64, 100);
+			assertShortMessage(cursor, 20, 0x90, 67, 100);
+			assertShortMessage(cursor, 30, 0x80, 60, 0);
+			assertTempo(cursor, 40, 250000);
+			assertShortMessage(cursor, 50, 0x80, 64, 0);
+			assertShortMessage(cursor, 60, 0xC3, 5, 0);
+			assertTrue(cursor.next());
+			assertTrue(cursor.isEndOfTrack());
+			assertFalse(cursor.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void sysexCancelsRunningStatus() throws IOException {
+		File file = folder.newFile("sysex.mid");
+		SmfWriter writer = new SmfWriter(file);
+		writer.writeShortMessage(0, 0xB0, 7, 100);
+		byte[] sysex = {(byte) 0xF0, 0x7E, 0x01, 0x02, (byte) 0xF7};
+		writer.writeSysex(5, sysex, 0, sysex.length);
+		writer.writeShortMessage(5, 0xB0, 7, 90);
+		writer.close();
+
+		SmfReader reader = new SmfReader(file);
+		try {
+			SmfCursor cursor = reader.merged();
+			assertTempo(cursor, 0, SmfReader.DEFAULT_TEMPO);
+			assertShortMessage(cursor, 0, 0xB0, 7, 100);
+			assertTrue(cursor.next());
+			assertTrue(cursor.isSysex());
+			assertEquals(5, cursor.getTick());
+			assertEquals(ByteBuffer.wrap(sysex), ByteBuffer.wrap(cursor.getSysexMessage()));
+			assertShortMessage(cursor, 5, 0xB0, 7, 90);
+			assertFalse(cursor.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void longGapsAreSplit() throws IOException {
+		File file = folder.newFile("gap.mid");
+		long lastTick = 2L * MAX_DELTA + 5;
+		SmfWriter writer = new SmfWriter(file);
+		writer.writeShortMessage(0, 0x90, 60, 100);
+		writer.writeShortMessage(lastTick, 0x90, 60, 0);
+		writer.close();
+
+		SmfReader reader = new SmfReader(file);
+		try {
+			SmfCursor cursor = reader.track(0);
+			assertTempo(cursor, 0, SmfReader.DEFAULT_TEMPO);
+			assertShortMessage(cursor, 0, 0x90, 60, 100);
+			for (int i = 1; i <= 2; i++) {
+				assertTrue(cursor.next());
+				assertTrue(cursor.isMeta());
+				assertEquals(SmfCursor.META_TEXT, cursor.getMetaType());
+				assertEquals(0, cursor.getDataLength());
+				assertEquals((long) i * MAX_DELTA, cursor.getTick());
+			}
+			// the status byte is written again after the text events
+			assertShortMessage(cursor, lastTick, 0x90, 60, 0);
+			assertTrue(cursor.next());
+			assertTrue(cursor.isEndOfTrack());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writerRejectsDivisionZero() throws IOException {
+		new SmfWriter(folder.newFile("division.mid"), 0, SmfWriter.DEFAULT_BUFFER_SIZE);
+	}
+
+	@Test
+	public void readerRejectsDivisionZero() throws IOException {
+		byte[] content = writeEmptyFile();
+		assertInvalid(withDivision(content, 0));
+		// SMPTE division with 0 ticks per frame
+		assertInvalid(withDivision(content, 0xE700));
+		new SmfReader(ByteBuffer.wrap(withDivision(content, 0xE728))).close();
+	}
+
+	@Test
+	public void writerRejectsInvalidTempos() throws IOException {
+		SmfWriter writer = new SmfWriter(folder.newFile("tempo.mid"));
+		try {
+			for (int tempo : new int[]{0, -1, 0x1000000}) {
+				try {
+					writer.writeTempo(0, tempo);
+					fail("Tempo " + tempo + " accepted");
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void readerIgnoresInvalidTempos() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.putInt(0x4D546864).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) 96);
+		buffer.putInt(0x4D54726B).putInt(24);
+		// tempo event with 2 bytes only, tempo 0, valid tempo, end of track
+		buffer.put(new byte[]{0, (byte) 0xFF, 0x51, 2, 0x07, (byte) 0xA1});
+		buffer.put(new byte[]{0, (byte) 0xFF, 0x51, 3, 0, 0, 0});
+		buffer.put(new byte[]{0, (byte) 0xFF, 0x51, 3, 0x03, (byte) 0xD0, (byte) 0x90});
+		buffer.put(new byte[]{0, (byte) 0xFF, 0x2F, 0});
+		buffer.flip();
+
+		SmfCursor cursor = new SmfReader(buffer).track(0);
+		assertTrue(cursor.next());
+		assertEquals(-1, cursor.getTempo());
+		assertTrue(cursor.next());
+		assertEquals(-1, cursor.getTempo());
+		assertTempo(cursor, 0, 250000);
+		assertTrue(cursor.next());
+		assertTrue(cursor.isEndOfTrack());
+	}
+
+	private byte[] writeEmptyFile() throws IOException {
+		File file = folder.newFile("empty.mid");
+		new SmfWriter(file).close();
+		return Files.readAllBytes(file.toPath());
+	}
+
+	private static byte[] withDivision(byte[] content, int division) {
+		byte[] result = content.clone();
+		result[12] = (byte) (division >> 8);
+		result[13] = (byte) division;
+		return result;
+	}
+
+	private static void assertInvalid(byte[] content) {
+		try {
+			new SmfReader(ByteBuffer.wrap(content));
+			fail("Invalid division accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void assertShortMessage(SmfCursor cursor, long tick, int status, int data1, int data2) {
+		assertTrue(cursor.next());
+		assertEquals(tick, cursor.getTick());
+		assertEquals(status, cursor.getStatus());
+		assertEquals(data1, cursor.getData1());
+		assertEquals(data2, cursor.getData2());
+	}
+
+	private static void assertTempo(SmfCursor cursor, long tick, int tempo) {
+		assertTrue(cursor.next());
+		assertEquals(tick, cursor.getTick());
+		assertTrue(cursor.isMeta());
+		assertEquals(tempo, cursor.getTempo());
+	}
+}